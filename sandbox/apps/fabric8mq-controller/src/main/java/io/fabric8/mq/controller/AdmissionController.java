@@ -0,0 +1,123 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller;
+
+import io.fabric8.mq.controller.util.TokenBucket;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a newly accepted client connection is allowed to start protocol detection.
+ * A connection is rejected if there are already too many connections being detected, or if
+ * either the overall connection rate or the rate from its source address is exceeded.
+ * Rejected connections are closed straight away - before any timers, buffers or SSL state
+ * are created for them.
+ */
+class AdmissionController {
+    private final MQControllerStatus status;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ConcurrentMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+    private final TokenBucket globalBucket;
+
+    AdmissionController(MQControllerStatus status) {
+        this.status = status;
+        int rate = status.getMaxConnectionRate();
+        this.globalBucket = rate > 0 ? new TokenBucket(rate, burst(rate), System.nanoTime()) : null;
+    }
+
+    /**
+     * @return true if the connection may proceed - in which case {@link #release()} must be
+     * called once protocol detection has finished, whether it succeeded or not
+     */
+    boolean admit(InetSocketAddress remoteAddress) {
+        return admit(remoteAddress, System.nanoTime());
+    }
+
+    /**
+     * The pending slot and the global token are taken before the per-host token, and anything
+     * already taken is given back if a later check rejects the connection - so a rejected
+     * connection is never charged against a limit that didn't reject it.
+     */
+    boolean admit(InetSocketAddress remoteAddress, long now) {
+        int maxPending = status.getMaxPendingConnections();
+        int current = pending.incrementAndGet();
+        if (maxPending > 0 && current > maxPending) {
+            pending.decrementAndGet();
+            return false;
+        }
+        if (globalBucket != null && !globalBucket.tryAcquire(now)) {
+            pending.decrementAndGet();
+            return false;
+        }
+        TokenBucket hostBucket = getHostBucket(remoteAddress, now);
+        if (hostBucket != null && !hostBucket.tryAcquire(now)) {
+            if (globalBucket != null) {
+                globalBucket.refund();
+            }
+            pending.decrementAndGet();
+            return false;
+        }
+        status.setPendingConnectionAttempts(current);
+        return true;
+    }
+
+    void release() {
+        status.setPendingConnectionAttempts(pending.decrementAndGet());
+    }
+
+    int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Forget about source addresses that haven't connected recently
+     */
+    void purgeIdleHosts() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<String, TokenBucket>> iterator = hostBuckets.entrySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().getValue().isFull(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private TokenBucket getHostBucket(InetSocketAddress remoteAddress, long now) {
+        int hostRate = status.getMaxConnectionRatePerHost();
+        if (hostRate <= 0 || remoteAddress == null) {
+            return null;
+        }
+        String host = remoteAddress.getHostString();
+        TokenBucket bucket = hostBuckets.get(host);
+        if (bucket == null) {
+            TokenBucket newBucket = new TokenBucket(hostRate, burst(hostRate), now);
+            bucket = hostBuckets.putIfAbsent(host, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    private int burst(int rate) {
+        int burst = status.getConnectionRateBurst();
+        return burst > 0 ? burst : rate;
+    }
+}
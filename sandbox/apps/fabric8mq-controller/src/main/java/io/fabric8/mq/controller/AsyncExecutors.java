@@ -45,6 +45,10 @@ public class AsyncExecutors extends ServiceSupport {
         }
     }
 
+    public ScheduledFuture schedule(Runnable runnable, long delay) {
+        return scheduledExecutorService.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+
     public ScheduledFuture scheduleAtFixedRate(Runnable runnable, long period, long maxTimeInCall) {
         MonitorScheduled monitorScheduled = new MonitorScheduled(runnable, maxTimeInCall);
         ScheduledFuture future = scheduledExecutorService.scheduleAtFixedRate(monitorScheduled, period, period, TimeUnit.MILLISECONDS);
@@ -74,6 +74,10 @@ public class BrokerStateInfo extends ServiceSupport {
         if (controllerStatus.getNumberOfSevers() < 1) {
             controllerStatus.setNumberOfSevers(numberOfCores);
         }
+        if (controllerStatus.getNumberOfEventLoops() < 1) {
+            //one event loop per listener - each NetServer is bound to its own event loop
+            controllerStatus.setNumberOfEventLoops(controllerStatus.getNumberOfSevers());
+        }
         if (controllerStatus.getNumberOfMultiplexers() < 1) {
             controllerStatus.setNumberOfMultiplexers(numberOfCores);
         }
@@ -17,12 +17,16 @@ package io.fabric8.mq.controller;
 import io.fabric8.mq.controller.camel.DefaultMessageRouter;
 import io.fabric8.mq.controller.model.Model;
 import io.fabric8.mq.controller.multiplexer.MultiplexerController;
+import io.fabric8.mq.controller.multiplexer.MultiplexerSelectionStrategy;
+import io.fabric8.mq.controller.multiplexer.MultiplexerSelectionStrategyFactory;
 import io.fabric8.mq.controller.protocol.FutureHandler;
 import io.fabric8.mq.controller.protocol.ProtocolDetector;
+import io.fabric8.mq.controller.protocol.ProtocolMatcher;
 import io.fabric8.mq.controller.protocol.ProtocolTransport;
 import io.fabric8.mq.controller.protocol.ProtocolTransportFactory;
 import io.fabric8.mq.controller.protocol.mqtt.MQTTTransportFactory;
 import io.fabric8.mq.controller.protocol.mqtt.MqttProtocol;
+import io.fabric8.mq.controller.protocol.openwire.OpenWireTransport;
 import io.fabric8.mq.controller.protocol.openwire.OpenWireTransportFactory;
 import io.fabric8.mq.controller.protocol.openwire.OpenwireProtocol;
 import io.fabric8.mq.controller.protocol.ssl.SslConfig;
@@ -31,6 +35,7 @@ import io.fabric8.mq.controller.protocol.stomp.StompProtocol;
 import io.fabric8.mq.controller.protocol.stomp.StompTransportFactory;
 import io.fabric8.mq.controller.util.ConnectedSocketInfo;
 import io.fabric8.mq.controller.util.ConnectionParameters;
+import io.fabric8.mq.controller.util.ConnectionRegistry;
 import io.fabric8.mq.controller.util.ProtocolMapping;
 import io.fabric8.mq.controller.util.SocketWrapper;
 import io.fabric8.utils.JMXUtils;
@@ -40,6 +45,7 @@ import org.apache.activemq.util.ServiceStopper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.VertxFactory;
@@ -54,12 +60,15 @@ import javax.enterprise.inject.Default;
 import javax.management.ObjectName;
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A MQ Controller which listens on a port and snoops the initial request bytes from a client
@@ -71,27 +80,35 @@ import java.util.concurrent.CountDownLatch;
 public class MQController extends BrokerStateInfo implements Handler<Transport> {
     private static final transient Logger LOG = LoggerFactory.getLogger(MQController.class);
     private final String TYPE = MQController.class.getName();
-    private final Vertx vertx;
+    private static final String EVENT_LOOP_POOL_SIZE = "vertx.pool.eventloop.size";
+    private static final long PURGE_IDLE_HOSTS_PERIOD = 60000L;
     private final List<NetServer> servers;
     private final List<MultiplexerController> multiplexerControllers;
-    private final HashSet<SocketWrapper> socketsConnecting;
-    private final HashSet<ConnectedSocketInfo> socketsConnected;
+    private final ConcurrentMap<Context, Integer> contextLanes;
+    private final AtomicInteger laneCounter;
+    private final ConnectionRegistry connections;
     private final ShutdownTracker shutdownTacker;
     SSLContext sslContext;
     SslSocketWrapper.ClientAuth clientAuth = SslSocketWrapper.ClientAuth.WANT;
     private List<ProtocolDetector> protocolDetectors;
+    private ProtocolMatcher protocolMatcher;
     private int maxProtocolIdentificationLength;
     private SslConfig sslConfig;
     private ObjectName controllerObjectName;
     private int boundPort;
     private String host;
+    private Vertx vertx;
+    private AdmissionController admissionController;
+    private MultiplexerSelectionStrategy multiplexerSelectionStrategy;
+    private volatile MultiplexerController[][] multiplexerLanes = new MultiplexerController[0][];
+    private long purgeTimerId = -1;
 
     public MQController() {
-        vertx = VertxFactory.newVertx();
         servers = new CopyOnWriteArrayList<>();
         multiplexerControllers = new CopyOnWriteArrayList<>();
-        socketsConnecting = new HashSet<>();
-        socketsConnected = new HashSet<>();
+        contextLanes = new ConcurrentHashMap<>();
+        laneCounter = new AtomicInteger();
+        connections = new ConnectionRegistry();
         protocolDetectors = new CopyOnWriteArrayList<>();
         shutdownTacker = new ShutdownTracker();
     }
@@ -113,6 +130,16 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
     @Override
     protected void doStart() throws Exception {
         super.doStart();
+        vertx = createVertx();
+        admissionController = new AdmissionController(getControllerStatus());
+        if (getControllerStatus().getMaxConnectionRatePerHost() > 0) {
+            purgeTimerId = vertx.setPeriodic(PURGE_IDLE_HOSTS_PERIOD, new Handler<Long>() {
+                @Override
+                public void handle(Long timerId) {
+                    admissionController.purgeIdleHosts();
+                }
+            });
+        }
 
         //getLoad protocols
         protocolDetectors.add(new MqttProtocol());
@@ -122,6 +149,7 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
         for (ProtocolDetector protocolDetector : protocolDetectors) {
             maxProtocolIdentificationLength = Math.max(protocolDetector.getMaxIdentificationLength(), maxProtocolIdentificationLength);
         }
+        protocolMatcher = new ProtocolMatcher(protocolDetectors);
         final String hostName = getControllerStatus().getControllerHost();
         int port = getControllerStatus().getControllerPort();
 
@@ -154,13 +182,29 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
         }
         countDownLatch.await();
 
+        //with affinity, the multiplexers are split into one lane per event loop
+        int numberOfLanes = 1;
+        if (getControllerStatus().isEventLoopAffinity()) {
+            numberOfLanes = Math.max(1, Math.min(numberOfMultiplexers, Math.min(numberOfServers, getControllerStatus().getNumberOfEventLoops())));
+        }
+        List<List<MultiplexerController>> lanes = new ArrayList<>(numberOfLanes);
+        for (int i = 0; i < numberOfLanes; i++) {
+            lanes.add(new ArrayList<MultiplexerController>());
+        }
+        multiplexerSelectionStrategy = MultiplexerSelectionStrategyFactory.getStrategy(getControllerStatus().getMultiplexerSelection());
         for (int i = 0; i < numberOfMultiplexers; i++) {
             String name = getControllerStatus().getName();
             MultiplexerController multiplexerController = new MultiplexerController(name
                                                                                         + "-MultiplexController-" + i, this);
             multiplexerController.start();
             multiplexerControllers.add(multiplexerController);
+            lanes.get(i % numberOfLanes).add(multiplexerController);
+        }
+        MultiplexerController[][] laneArrays = new MultiplexerController[numberOfLanes][];
+        for (int i = 0; i < numberOfLanes; i++) {
+            laneArrays[i] = lanes.get(i).toArray(new MultiplexerController[lanes.get(i).size()]);
         }
+        multiplexerLanes = laneArrays;
         controllerObjectName = new ObjectName(Model.DEFAULT_JMX_DOMAIN, "name", MQController.class.getName());
         JMXUtils.registerMBean(getControllerStatus(), controllerObjectName);
         getControllerStatus().setBoundPort(boundPort);
@@ -171,6 +215,21 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
         System.err.print(info);
     }
 
+    /**
+     * Vert.x sizes its event loop pool from a system property when it is created, so the
+     * instance is only created once the configuration has been injected
+     */
+    private Vertx createVertx() {
+        int numberOfEventLoops = getControllerStatus().getNumberOfEventLoops();
+        if (numberOfEventLoops > 0 && System.getProperty(EVENT_LOOP_POOL_SIZE) == null) {
+            System.setProperty(EVENT_LOOP_POOL_SIZE, Integer.toString(numberOfEventLoops));
+        }
+        if (getControllerStatus().getNumberOfSevers() < numberOfEventLoops) {
+            LOG.warn("Only " + getControllerStatus().getNumberOfSevers() + " of " + numberOfEventLoops + " event loops will accept connections - increase NUMBER_NET_SERVERS");
+        }
+        return VertxFactory.newVertx();
+    }
+
     private void close() {
         try {
             if (controllerObjectName != null) {
@@ -179,14 +238,20 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
             for (MultiplexerController multiplexerController : multiplexerControllers) {
                 multiplexerController.stop();
             }
+            if (purgeTimerId != -1) {
+                vertx.cancelTimer(purgeTimerId);
+                purgeTimerId = -1;
+            }
             for (NetServer server : servers) {
                 server.close();
             }
             servers.clear();
-            for (SocketWrapper socket : new ArrayList<>(socketsConnecting)) {
+            multiplexerLanes = new MultiplexerController[0][];
+            contextLanes.clear();
+            for (SocketWrapper socket : connections.getConnecting()) {
                 handleConnectFailure(socket, null);
             }
-            for (ConnectedSocketInfo socket : new ArrayList<>(socketsConnected)) {
+            for (ConnectedSocketInfo socket : connections.getConnected()) {
                 handleShutdown(socket);
             }
         } catch (Throwable e) {
@@ -212,14 +277,28 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
 
     public void handle(final SocketWrapper socket) {
         MQControllerStatus status = getControllerStatus();
-        shutdownTacker.retain();
         status.incrementReceivedConnectionAttempts();
-        socketsConnecting.add(socket);
+        //fast reject - before any state is created for the connection
+        if (!admissionController.admit(socket.remoteAddress())) {
+            status.incrementRejectedConnectionAttempts();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Rejected MQController client '%s': %d connections pending", socket.remoteAddress(), admissionController.getPending()));
+            }
+            socket.close();
+            return;
+        }
+        detectProtocol(socket);
+    }
+
+    private void detectProtocol(final SocketWrapper socket) {
+        MQControllerStatus status = getControllerStatus();
+        shutdownTacker.retain();
+        connections.addConnecting(socket);
 
         if (status.getConnectionTimeout() > 0) {
             vertx.setTimer(status.getConnectionTimeout(), new Handler<Long>() {
                 public void handle(Long timerID) {
-                    if (socketsConnecting.contains(socket)) {
+                    if (connections.isConnecting(socket)) {
                         handleConnectFailure(socket, String.format("MQController client '%s' protocol detection timeout.", socket.remoteAddress()));
                     }
                 }
@@ -245,55 +324,59 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
             @Override
             public void handle(Buffer event) {
                 received.appendBuffer(event);
-                for (final ProtocolDetector protocolDetector : protocolDetectors) {
-                    if (protocolDetector.matches(received)) {
-                        if ("ssl".equals(protocolDetector.getProtocolName())) {
-
-                            LOG.info(String.format("SSL Connection from '%s'", socket.remoteAddress()));
-                            String disabledCypherSuites = null;
-                            String enabledCipherSuites = null;
-                            if (sslConfig != null) {
-                                disabledCypherSuites = sslConfig.getDisabledCypherSuites();
-                                enabledCipherSuites = sslConfig.getEnabledCipherSuites();
-                            }
-                            if (sslContext == null) {
-                                try {
-                                    if (sslConfig != null) {
-                                        sslContext = SSLContext.getInstance(sslConfig.getProtocol());
-                                        sslContext.init(sslConfig.getKeyManagers(), sslConfig.getTrustManagers(), null);
-                                    } else {
-                                        sslContext = SSLContext.getDefault();
-                                    }
-                                } catch (Throwable e) {
-                                    handleConnectFailure(socket, "Could initialize SSL: " + e);
-                                    return;
+                int match = protocolMatcher.classify(received);
+                if (match >= 0) {
+                    final ProtocolDetector protocolDetector = protocolMatcher.getDetector(match);
+                    if ("ssl".equals(protocolDetector.getProtocolName())) {
+
+                        LOG.info(String.format("SSL Connection from '%s'", socket.remoteAddress()));
+                        String disabledCypherSuites = null;
+                        String enabledCipherSuites = null;
+                        if (sslConfig != null) {
+                            disabledCypherSuites = sslConfig.getDisabledCypherSuites();
+                            enabledCipherSuites = sslConfig.getEnabledCipherSuites();
+                        }
+                        if (sslContext == null) {
+                            try {
+                                if (sslConfig != null) {
+                                    sslContext = SSLContext.getInstance(sslConfig.getProtocol());
+                                    sslContext.init(sslConfig.getKeyManagers(), sslConfig.getTrustManagers(), null);
+                                } else {
+                                    sslContext = SSLContext.getDefault();
                                 }
+                            } catch (Throwable e) {
+                                handleConnectFailure(socket, "Could initialize SSL: " + e);
+                                return;
                             }
+                        }
 
-                            // lets wrap it up in a SslSocketWrapper.
-                            SslSocketWrapper sslSocketWrapper = new SslSocketWrapper(socket);
-                            sslSocketWrapper.putBackHeader(received);
-                            sslSocketWrapper.initServer(sslContext, clientAuth, disabledCypherSuites, enabledCipherSuites);
-                            MQController.this.handle(sslSocketWrapper);
-                            return;
-
-                        } else {
-                            protocolDetector.snoopConnectionParameters(socket, received, new Handler<ConnectionParameters>() {
-                                @Override
-                                public void handle(ConnectionParameters connectionParameters) {
-                                    // this will install a new dataHandler on the socket.
-                                    if (connectionParameters.protocol == null)
-                                        connectionParameters.protocol = protocolDetector.getProtocolName();
-                                    if (connectionParameters.protocolSchemes == null)
-                                        connectionParameters.protocolSchemes = protocolDetector.getProtocolSchemes();
-                                    route(socket, connectionParameters, received);
-                                }
-                            });
-                            return;
+                        // lets wrap it up in a SslSocketWrapper.
+                        SslSocketWrapper sslSocketWrapper = new SslSocketWrapper(socket);
+                        sslSocketWrapper.putBackHeader(received);
+                        sslSocketWrapper.initServer(sslContext, clientAuth, disabledCypherSuites, enabledCipherSuites);
+                        //hand over to the wrapper - it keeps the admission of the underlying socket
+                        if (connections.removeConnecting(socket)) {
+                            shutdownTacker.release();
+                            detectProtocol(sslSocketWrapper);
                         }
+                        return;
+
+                    } else {
+                        protocolDetector.snoopConnectionParameters(socket, received, new Handler<ConnectionParameters>() {
+                            @Override
+                            public void handle(ConnectionParameters connectionParameters) {
+                                // this will install a new dataHandler on the socket.
+                                if (connectionParameters.protocol == null)
+                                    connectionParameters.protocol = protocolDetector.getProtocolName();
+                                if (connectionParameters.protocolSchemes == null)
+                                    connectionParameters.protocolSchemes = protocolDetector.getProtocolSchemes();
+                                route(socket, connectionParameters, received);
+                            }
+                        });
+                        return;
                     }
                 }
-                if (received.length() >= maxProtocolIdentificationLength) {
+                if (match == ProtocolMatcher.NO_MATCH || received.length() >= maxProtocolIdentificationLength) {
                     handleConnectFailure(socket, "Connection did not use one of the enabled protocols " + getProtocolNames());
                 }
             }
@@ -301,7 +384,8 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
     }
 
     private void handleConnectFailure(SocketWrapper socket, String reason) {
-        if (socketsConnecting.remove(socket)) {
+        if (connections.removeConnecting(socket)) {
+            admissionController.release();
             if (reason != null) {
                 LOG.info(reason);
             }
@@ -332,37 +416,68 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
         if (transport != null) {
             MQControllerStatus status = getControllerStatus();
             status.incrementSuccessfulConnectionAttempts();
-            socketsConnecting.remove(socketFromClient);
+            if (connections.removeConnecting(socketFromClient)) {
+                admissionController.release();
+            }
 
             final ConnectedSocketInfo connectedInfo = new ConnectedSocketInfo();
             connectedInfo.setParams(params);
             connectedInfo.setProtocolMapping(protocolMapping);
             connectedInfo.setFrom(socketFromClient);
             connectedInfo.setTo(transport);
+            //registered before any of the handlers below can look it up
+            connections.addConnected(connectedInfo);
 
-            Handler<Void> endHandler = new Handler<Void>() {
+            //either side closing shuts down the connection - found from whichever side it was
+            socketFromClient.readStream().endHandler(new Handler<Void>() {
                 @Override
                 public void handle(Void event) {
-                    handleShutdown(connectedInfo);
+                    handleShutdown(socketFromClient);
                 }
-            };
-            Handler<Throwable> exceptionHandler = new Handler<Throwable>() {
+            });
+            socketFromClient.readStream().exceptionHandler(new Handler<Throwable>() {
                 @Override
                 public void handle(Throwable event) {
                     event.printStackTrace();
-                    handleShutdown(connectedInfo);
+                    handleShutdown(socketFromClient);
+                }
+            });
+            final ProtocolTransport to = transport;
+            Handler<Void> endHandler = new Handler<Void>() {
+                @Override
+                public void handle(Void event) {
+                    handleShutdown(to);
                 }
             };
-
-            socketFromClient.readStream().endHandler(endHandler);
-            socketFromClient.readStream().exceptionHandler(exceptionHandler);
             transport.endHandler(endHandler);
-            transport.exceptionHandler(exceptionHandler);
+            transport.exceptionHandler(new Handler<Throwable>() {
+                @Override
+                public void handle(Throwable event) {
+                    event.printStackTrace();
+                    handleShutdown(to);
+                }
+            });
             transport.stopHandler(endHandler);
+            //we are called on the event loop of the client socket - keep the transport on it too
+            Context context = vertx.currentContext();
+            if (context != null && status.isEventLoopAffinity()) {
+                transport.setContext(context);
+            }
+            if (status.getWriteQueueMaxSize() > 0) {
+                transport.setWriteQueueMaxSize(status.getWriteQueueMaxSize());
+            }
+            //a negative batch size leaves the protocol default in place
+            if (status.getWriteBatchMaxSize() >= 0) {
+                transport.setWriteBatching(status.getWriteBatchMaxSize(), status.getWriteBatchMaxDelayMicros());
+            }
+            //pooled buffers are released by the NetSocket once written - other sockets may hold on to them
+            if (status.isPooledMarshalBuffers() && transport instanceof OpenWireTransport && socketFromClient.stream() instanceof NetSocket) {
+                ((OpenWireTransport) transport).setPooledBuffers(true);
+            }
 
             transport.pause();
 
-            addOutbound(protocolMapping, transport);
+            addOutbound(params, socketFromClient, protocolMapping, transport);
 
             transport.write(received);
 
@@ -370,7 +485,6 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
             Pump readPump = Pump.createPump(socketFromClient.readStream(), transport);
             connectedInfo.setWritePump(writePump);
             connectedInfo.setReadPump(readPump);
-            socketsConnected.add(connectedInfo);
 
             writePump.start();
             readPump.start();
@@ -387,13 +501,16 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
     }
 
     public void handleShutdown(Transport transport) {
-        if (transport != null) {
-            for (ConnectedSocketInfo info : socketsConnected) {
-                if (info.getTo() != null && info.getTo().equals(transport)) {
-                    handleShutdown(info);
-                    break;
-                }
-            }
+        ConnectedSocketInfo info = connections.getConnected(transport);
+        if (info != null) {
+            handleShutdown(info);
+        }
+    }
+
+    private void handleShutdown(SocketWrapper socketFromClient) {
+        ConnectedSocketInfo info = connections.getConnected(socketFromClient);
+        if (info != null) {
+            handleShutdown(info);
         }
     }
 
@@ -404,7 +521,7 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
     }
 
     private void handleShutdown(ConnectedSocketInfo connectedInfo) {
-        if (socketsConnected.remove(connectedInfo)) {
+        if (connections.removeConnected(connectedInfo)) {
             try {
                 for (MultiplexerController multiplexerController : multiplexerControllers) {
                     multiplexerController.removeTransport(connectedInfo.getTo());
@@ -431,20 +548,41 @@ public class MQController extends BrokerStateInfo implements Handler<Transport>
         vertx.runOnContext(handler);
     }
 
-    protected void addOutbound(ProtocolMapping protocolMapping, ProtocolTransport transport) throws Exception {
+    protected void addOutbound(ConnectionParameters params, SocketWrapper socketFromClient, ProtocolMapping protocolMapping, ProtocolTransport transport) throws Exception {
         String fromURI = transport.getRemoteAddress();
         String protocol = protocolMapping.getProtocol();
 
         //add in Camel Interceptor
         DefaultMessageRouter messageRouter = new DefaultMessageRouter(transport);
-        //round robin
-        synchronized (multiplexerControllers) {
-            if (!multiplexerControllers.isEmpty()) {
-                MultiplexerController multiplexerController = multiplexerControllers.remove(0);
-                multiplexerController.addTransport(protocol, transport);
-                multiplexerControllers.add(multiplexerController);
+        //choose from the lane for the event loop of the client
+        MultiplexerController[] lane = getMultiplexerLane(vertx.currentContext());
+        if (lane != null && lane.length > 0) {
+            InetSocketAddress remoteAddress = socketFromClient.remoteAddress();
+            String remoteHost = remoteAddress != null ? remoteAddress.getHostString() : null;
+            MultiplexerController multiplexerController = lane.length == 1 ? lane[0] : multiplexerSelectionStrategy.select(lane, params, remoteHost);
+            multiplexerController.addTransport(protocol, transport);
+        }
+    }
+
+    private MultiplexerController[] getMultiplexerLane(Context context) {
+        MultiplexerController[][] multiplexerLanes = this.multiplexerLanes;
+        int numberOfLanes = multiplexerLanes.length;
+        if (numberOfLanes == 0) {
+            return null;
+        }
+        int index = 0;
+        if (context != null && numberOfLanes > 1) {
+            Integer lane = contextLanes.get(context);
+            if (lane == null) {
+                Integer newLane = laneCounter.getAndIncrement() % numberOfLanes;
+                lane = contextLanes.putIfAbsent(context, newLane);
+                if (lane == null) {
+                    lane = newLane;
+                }
             }
+            index = lane % numberOfLanes;
         }
+        return multiplexerLanes[index];
     }
 
     protected ProtocolTransport getTransport(ProtocolMapping protocolMapping) throws IOException {
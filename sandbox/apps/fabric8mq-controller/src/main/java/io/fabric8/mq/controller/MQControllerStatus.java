@@ -26,16 +26,56 @@ public class MQControllerStatus implements MQControllerStatusMBean {
     private final AtomicLong receivedConnectionAttempts = new AtomicLong();
     private final AtomicLong successfulConnectionAttempts = new AtomicLong();
     private final AtomicLong failedConnectionAttempts = new AtomicLong();
+    private final AtomicLong rejectedConnectionAttempts = new AtomicLong();
     @Inject
     @ConfigProperty(name = "INBOUND_CONNECTION_TIMOUT", defaultValue = "5000")
     private long connectionTimeout;
     @Inject
+    @ConfigProperty(name = "MAX_PENDING_CONNECTIONS", defaultValue = "1024")
+    private int maxPendingConnections;
+    @Inject
+    @ConfigProperty(name = "MAX_CONNECTION_RATE", defaultValue = "0")
+    private int maxConnectionRate;
+    @Inject
+    @ConfigProperty(name = "MAX_CONNECTION_RATE_PER_HOST", defaultValue = "0")
+    private int maxConnectionRatePerHost;
+    @Inject
+    @ConfigProperty(name = "CONNECTION_RATE_BURST", defaultValue = "0")
+    private int connectionRateBurst;
+    @Inject
     @ConfigProperty(name = "NUMBER_NET_SERVERS", defaultValue = "-1")
     private int numberOfSevers;
     @Inject
     @ConfigProperty(name = "NUMBER_MULTIPLEXERS", defaultValue = "-1")
     private int numberOfMultiplexers;
     @Inject
+    @ConfigProperty(name = "MAX_PENDING_COMMANDS", defaultValue = "10000")
+    private int maxPendingCommands;
+    @Inject
+    @ConfigProperty(name = "PENDING_COMMANDS_OVERFLOW", defaultValue = "backpressure")
+    private String pendingCommandsOverflow;
+    @Inject
+    @ConfigProperty(name = "REQUEST_TIMEOUT", defaultValue = "0")
+    private long requestTimeout;
+    @Inject
+    @ConfigProperty(name = "STATE_REPLAY_BATCH_SIZE", defaultValue = "500")
+    private int stateReplayBatchSize;
+    @Inject
+    @ConfigProperty(name = "DISPATCH_THREADS", defaultValue = "0")
+    private int dispatchThreads;
+    @Inject
+    @ConfigProperty(name = "BROKER_CONNECTIONS_PER_MULTIPLEXER", defaultValue = "1")
+    private int brokerConnectionsPerMultiplexer;
+    @Inject
+    @ConfigProperty(name = "MULTIPLEXER_SELECTION", defaultValue = "least-inputs")
+    private String multiplexerSelection;
+    @Inject
+    @ConfigProperty(name = "NUMBER_EVENT_LOOPS", defaultValue = "-1")
+    private int numberOfEventLoops;
+    @Inject
+    @ConfigProperty(name = "EVENT_LOOP_AFFINITY", defaultValue = "true")
+    private boolean eventLoopAffinity;
+    @Inject
     @ConfigProperty(name = "NAME", defaultValue = "MQController")
     private String name;
     @Inject
@@ -48,8 +88,21 @@ public class MQControllerStatus implements MQControllerStatusMBean {
     @ConfigProperty(name = "VIRTUAL_HOST", defaultValue = "")
     private String defaultVirtualHost;
     @Inject
+    @ConfigProperty(name = "WRITE_QUEUE_MAX_SIZE", defaultValue = "1048576")
+    private int writeQueueMaxSize;
+    @Inject
+    @ConfigProperty(name = "POOLED_MARSHAL_BUFFERS", defaultValue = "false")
+    private boolean pooledMarshalBuffers;
+    @Inject
+    @ConfigProperty(name = "WRITE_BATCH_MAX_SIZE", defaultValue = "-1")
+    private int writeBatchMaxSize;
+    @Inject
+    @ConfigProperty(name = "WRITE_BATCH_MAX_DELAY_MICROS", defaultValue = "0")
+    private long writeBatchMaxDelayMicros;
+    @Inject
     private CamelRouter camelRouter;
 
+    private volatile int pendingConnectionAttempts;
     private int boundPort;
     private String host;
 
@@ -89,6 +142,60 @@ public class MQControllerStatus implements MQControllerStatusMBean {
         failedConnectionAttempts.incrementAndGet();
     }
 
+    @Override
+    public long getRejectedConnectionAttempts() {
+        return rejectedConnectionAttempts.get();
+    }
+
+    void incrementRejectedConnectionAttempts() {
+        rejectedConnectionAttempts.incrementAndGet();
+    }
+
+    @Override
+    public int getPendingConnectionAttempts() {
+        return pendingConnectionAttempts;
+    }
+
+    void setPendingConnectionAttempts(int pendingConnectionAttempts) {
+        this.pendingConnectionAttempts = pendingConnectionAttempts;
+    }
+
+    @Override
+    public int getMaxPendingConnections() {
+        return maxPendingConnections;
+    }
+
+    void setMaxPendingConnections(int maxPendingConnections) {
+        this.maxPendingConnections = maxPendingConnections;
+    }
+
+    @Override
+    public int getMaxConnectionRate() {
+        return maxConnectionRate;
+    }
+
+    void setMaxConnectionRate(int maxConnectionRate) {
+        this.maxConnectionRate = maxConnectionRate;
+    }
+
+    @Override
+    public int getMaxConnectionRatePerHost() {
+        return maxConnectionRatePerHost;
+    }
+
+    void setMaxConnectionRatePerHost(int maxConnectionRatePerHost) {
+        this.maxConnectionRatePerHost = maxConnectionRatePerHost;
+    }
+
+    @Override
+    public int getConnectionRateBurst() {
+        return connectionRateBurst;
+    }
+
+    void setConnectionRateBurst(int connectionRateBurst) {
+        this.connectionRateBurst = connectionRateBurst;
+    }
+
     @Override
     public long getConnectionTimeout() {
         return connectionTimeout;
@@ -116,6 +223,123 @@ public class MQControllerStatus implements MQControllerStatusMBean {
         this.numberOfSevers = numberOfSevers;
     }
 
+    @Override
+    public int getMaxPendingCommands() {
+        return maxPendingCommands;
+    }
+
+    void setMaxPendingCommands(int maxPendingCommands) {
+        this.maxPendingCommands = maxPendingCommands;
+    }
+
+    @Override
+    public String getPendingCommandsOverflow() {
+        return pendingCommandsOverflow;
+    }
+
+    void setPendingCommandsOverflow(String pendingCommandsOverflow) {
+        this.pendingCommandsOverflow = pendingCommandsOverflow;
+    }
+
+    @Override
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    @Override
+    public int getStateReplayBatchSize() {
+        return stateReplayBatchSize;
+    }
+
+    void setStateReplayBatchSize(int stateReplayBatchSize) {
+        this.stateReplayBatchSize = stateReplayBatchSize;
+    }
+
+    @Override
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    @Override
+    public int getBrokerConnectionsPerMultiplexer() {
+        return brokerConnectionsPerMultiplexer;
+    }
+
+    void setBrokerConnectionsPerMultiplexer(int brokerConnectionsPerMultiplexer) {
+        this.brokerConnectionsPerMultiplexer = brokerConnectionsPerMultiplexer;
+    }
+
+    @Override
+    public String getMultiplexerSelection() {
+        return multiplexerSelection;
+    }
+
+    void setMultiplexerSelection(String multiplexerSelection) {
+        this.multiplexerSelection = multiplexerSelection;
+    }
+
+    @Override
+    public int getNumberOfEventLoops() {
+        return numberOfEventLoops;
+    }
+
+    void setNumberOfEventLoops(int numberOfEventLoops) {
+        this.numberOfEventLoops = numberOfEventLoops;
+    }
+
+    @Override
+    public boolean isEventLoopAffinity() {
+        return eventLoopAffinity;
+    }
+
+    void setEventLoopAffinity(boolean eventLoopAffinity) {
+        this.eventLoopAffinity = eventLoopAffinity;
+    }
+
+    @Override
+    public int getWriteQueueMaxSize() {
+        return writeQueueMaxSize;
+    }
+
+    void setWriteQueueMaxSize(int writeQueueMaxSize) {
+        this.writeQueueMaxSize = writeQueueMaxSize;
+    }
+
+    @Override
+    public boolean isPooledMarshalBuffers() {
+        return pooledMarshalBuffers;
+    }
+
+    void setPooledMarshalBuffers(boolean pooledMarshalBuffers) {
+        this.pooledMarshalBuffers = pooledMarshalBuffers;
+    }
+
+    @Override
+    public int getWriteBatchMaxSize() {
+        return writeBatchMaxSize;
+    }
+
+    void setWriteBatchMaxSize(int writeBatchMaxSize) {
+        this.writeBatchMaxSize = writeBatchMaxSize;
+    }
+
+    @Override
+    public long getWriteBatchMaxDelayMicros() {
+        return writeBatchMaxDelayMicros;
+    }
+
+    void setWriteBatchMaxDelayMicros(long writeBatchMaxDelayMicros) {
+        this.writeBatchMaxDelayMicros = writeBatchMaxDelayMicros;
+    }
+
     @Override
     public String getDefaultVirtualHost() {
         return defaultVirtualHost;
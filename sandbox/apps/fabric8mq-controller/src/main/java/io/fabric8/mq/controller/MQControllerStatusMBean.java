@@ -27,12 +27,50 @@ public interface MQControllerStatusMBean {
 
     long getFailedConnectionAttempts();
 
+    long getRejectedConnectionAttempts();
+
+    int getPendingConnectionAttempts();
+
+    int getMaxPendingConnections();
+
+    int getMaxConnectionRate();
+
+    int getMaxConnectionRatePerHost();
+
+    int getConnectionRateBurst();
+
     long getConnectionTimeout();
 
     String getCamelRoutes();
 
     int getNumberOfSevers();
 
+    int getNumberOfEventLoops();
+
+    String getMultiplexerSelection();
+
+    int getMaxPendingCommands();
+
+    String getPendingCommandsOverflow();
+
+    long getRequestTimeout();
+
+    int getStateReplayBatchSize();
+
+    int getDispatchThreads();
+
+    int getBrokerConnectionsPerMultiplexer();
+
+    boolean isEventLoopAffinity();
+
+    int getWriteQueueMaxSize();
+
+    boolean isPooledMarshalBuffers();
+
+    int getWriteBatchMaxSize();
+
+    long getWriteBatchMaxDelayMicros();
+
     String getDefaultVirtualHost();
 
     String getName();
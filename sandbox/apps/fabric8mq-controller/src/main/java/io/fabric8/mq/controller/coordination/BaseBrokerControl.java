@@ -19,7 +19,6 @@ import io.fabric8.mq.controller.AsyncExecutors;
 import io.fabric8.mq.controller.MessageDistribution;
 import io.fabric8.mq.controller.coordination.brokers.BrokerModel;
 import io.fabric8.mq.controller.coordination.brokers.BrokerTransport;
-import io.fabric8.mq.controller.coordination.brokers.DefaultBrokerTransport;
 import io.fabric8.mq.controller.coordination.scaling.ScalingEngine;
 import io.fabric8.mq.controller.coordination.scaling.ScalingEventListener;
 import io.fabric8.mq.controller.model.BrokerControl;
@@ -27,7 +26,6 @@ import io.fabric8.mq.controller.model.BrokerModelChangedListener;
 import io.fabric8.mq.controller.model.Model;
 import io.fabric8.mq.controller.util.WorkInProgress;
 import org.apache.activemq.command.ActiveMQDestination;
-import org.apache.activemq.transport.Transport;
 import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
 import org.apache.deltaspike.core.api.config.ConfigProperty;
@@ -35,8 +33,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -44,6 +46,15 @@ import java.util.concurrent.ScheduledFuture;
 
 public abstract class BaseBrokerControl extends ServiceSupport implements BrokerControl, ScalingEventListener {
     private static final Logger LOG = LoggerFactory.getLogger(BaseBrokerControl.class);
+    //sends may come straight from an event loop - so a quiesced broker is never waited for here
+    private static final long NO_WAIT = -1;
+    //brokers are always quiesced, and their transports borrowed, in this order - so they can't deadlock
+    private static final Comparator<BrokerModel> BROKER_ORDER = new Comparator<BrokerModel>() {
+        @Override
+        public int compare(BrokerModel o1, BrokerModel o2) {
+            return o1.getBrokerId().compareTo(o2.getBrokerId());
+        }
+    };
     @Inject
     protected Model model;
     @Inject
@@ -74,6 +85,12 @@ public abstract class BaseBrokerControl extends ServiceSupport implements Broker
     @Inject
     @ConfigProperty(name = "BBROKER_COORDINATOR", defaultValue = "singleton")
     private String brokerCoordinatorType;
+    @Inject
+    @ConfigProperty(name = "BROKER_LEASE_TIMEOUT", defaultValue = "60000")
+    private long leaseTimeout;
+    @Inject
+    @ConfigProperty(name = "BROKER_QUIESCE_TIMEOUT", defaultValue = "30000")
+    private long quiesceTimeout;
 
     protected BaseBrokerControl() {
         messageDistributionList = new CopyOnWriteArrayList<>();
@@ -135,35 +152,77 @@ public abstract class BaseBrokerControl extends ServiceSupport implements Broker
         this.brokerCoordinatorType = brokerCoordinatorType;
     }
 
+    @Override
+    public long getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    /**
+     * @param leaseTimeout milliseconds a command for a quiesced broker is held for before it's rejected - zero
+     *                     holds it for ever
+     */
+    public void setLeaseTimeout(long leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    public long getQuiesceTimeout() {
+        return quiesceTimeout;
+    }
+
+    /**
+     * @param quiesceTimeout milliseconds to wait for the sends in flight to a broker to finish before
+     *                       moving destinations - zero waits for ever
+     */
+    public void setQuiesceTimeout(long quiesceTimeout) {
+        this.quiesceTimeout = quiesceTimeout;
+    }
+
     public Collection<BrokerModel> getBrokerModels() {
         return model.getBrokers();
     }
 
     @Override
-    public Collection<BrokerTransport> getTransports(MessageDistribution messageDistribution) {
-        List<BrokerTransport> list = new ArrayList<>();
-        for (BrokerModel brokerModel : model.getBrokers()) {
-            brokerModel.getReadLock();
-            Transport transport = brokerModel.getTransport(messageDistribution);
-            list.add(new DefaultBrokerTransport(brokerModel, transport));
+    public Collection<BrokerTransport> getTransports(MessageDistribution messageDistribution) throws IOException {
+        List<BrokerModel> brokerModels = new ArrayList<>(model.getBrokers());
+        Collections.sort(brokerModels, BROKER_ORDER);
+        List<BrokerTransport> list = new ArrayList<>(brokerModels.size());
+        try {
+            for (BrokerModel brokerModel : brokerModels) {
+                BrokerTransport brokerTransport = brokerModel.borrowTransport(messageDistribution, NO_WAIT);
+                if (brokerTransport != null) {
+                    list.add(brokerTransport);
+                }
+            }
+        } catch (IOException e) {
+            for (BrokerTransport brokerTransport : list) {
+                brokerTransport.release();
+            }
+            throw e;
         }
         return list;
     }
 
     @Override
-    public BrokerTransport getTransport(MessageDistribution messageDistribution, ActiveMQDestination destination) {
-        Set<BrokerModel> set = model.getBrokersForDestination(destination);
-        if (set != null && !set.isEmpty()) {
-            BrokerModel brokerModel = set.iterator().next();
-            Transport transport = brokerModel.getTransport(messageDistribution);
-            brokerModel.getReadLock();
-            return new DefaultBrokerTransport(brokerModel, transport);
-        } else {
-            //allocate a broker for the destination
-            BrokerModel brokerModel = model.addBrokerForDestination(destination);
-            Transport transport = brokerModel.getTransport(messageDistribution);
-            brokerModel.getReadLock();
-            return new DefaultBrokerTransport(brokerModel, transport);
+    public BrokerTransport getTransport(MessageDistribution messageDistribution, ActiveMQDestination destination) throws IOException {
+        while (true) {
+            BrokerModel brokerModel;
+            Set<BrokerModel> set = model.getBrokersForDestination(destination);
+            if (set != null && !set.isEmpty()) {
+                brokerModel = set.iterator().next();
+            } else {
+                //allocate a broker for the destination
+                brokerModel = model.addBrokerForDestination(destination);
+            }
+            BrokerTransport brokerTransport = brokerModel.borrowTransport(messageDistribution, NO_WAIT);
+            if (brokerTransport == null) {
+                throw new IOException("No transport to " + brokerModel + " for " + destination);
+            }
+            //the destination may have been moved since it was looked up
+            set = model.getBrokersForDestination(destination);
+            if (set == null || set.isEmpty() || set.contains(brokerModel)) {
+                return brokerTransport;
+            }
+            brokerTransport.release();
         }
     }
 
@@ -206,19 +265,16 @@ public abstract class BaseBrokerControl extends ServiceSupport implements Broker
         if (leastLoaded != null) {
             BrokerModel nextLeastLoaded = model.getNextLeastLoadedBroker(leastLoaded);
             if (nextLeastLoaded != null) {
-                leastLoaded.getWriteLock();
-                nextLeastLoaded.getWriteLock();
-                try {
-                    leastLoaded.getWriteLock();
-                    nextLeastLoaded.getWriteLock();
-                    if (model.copyDestinations(leastLoaded, nextLeastLoaded)) {
-                        destroyBroker(leastLoaded);
-                    } else {
-                        LOG.error("Scale back failed");
+                if (quiesce(leastLoaded, nextLeastLoaded)) {
+                    try {
+                        if (model.copyDestinations(leastLoaded, nextLeastLoaded)) {
+                            destroyBroker(leastLoaded);
+                        } else {
+                            LOG.error("Scale back failed");
+                        }
+                    } finally {
+                        resume(leastLoaded, nextLeastLoaded);
                     }
-                } finally {
-                    leastLoaded.unlockWriteLock();
-                    nextLeastLoaded.unlockWriteLock();
                 }
             }
         }
@@ -237,24 +293,22 @@ public abstract class BaseBrokerControl extends ServiceSupport implements Broker
                 final BrokerModel leastLoaded = model.getLeastLoadedBroker();
                 final BrokerModel mostLoaded = model.getMostLoadedBroker();
 
-                try {
-                    leastLoaded.getWriteLock();
-                    mostLoaded.getWriteLock();
-
-                    int toCopy = mostLoaded.getActiveDestinationCount() - leastLoaded.getActiveDestinationCount();
-                    if (toCopy > 0) {
-                        toCopy = toCopy / 2;
+                if (quiesce(leastLoaded, mostLoaded)) {
+                    try {
+                        int toCopy = mostLoaded.getActiveDestinationCount() - leastLoaded.getActiveDestinationCount();
                         if (toCopy > 0) {
-                            List<ActiveMQDestination> copyList = model.getSortedDestinations(mostLoaded, toCopy);
-                            //check to see we won't break limits
-                            if (!copyList.isEmpty()) {
-                                model.copyDestinations(mostLoaded, leastLoaded, copyList);
+                            toCopy = toCopy / 2;
+                            if (toCopy > 0) {
+                                List<ActiveMQDestination> copyList = model.getSortedDestinations(mostLoaded, toCopy);
+                                //check to see we won't break limits
+                                if (!copyList.isEmpty()) {
+                                    model.copyDestinations(mostLoaded, leastLoaded, copyList);
+                                }
                             }
                         }
+                    } finally {
+                        resume(leastLoaded, mostLoaded);
                     }
-                } finally {
-                    leastLoaded.unlockWriteLock();
-                    mostLoaded.unlockWriteLock();
                 }
             }
         }
@@ -305,6 +359,40 @@ public abstract class BaseBrokerControl extends ServiceSupport implements Broker
         }
     }
 
+    /**
+     * Wait for the sends in flight to the brokers to finish, and hold any new ones back until they are resumed
+     *
+     * @return false if the brokers couldn't be quiesced in time - in which case none of them are
+     */
+    private boolean quiesce(BrokerModel... brokerModels) {
+        BrokerModel[] ordered = brokerModels.clone();
+        Arrays.sort(ordered, BROKER_ORDER);
+        int quiesced = 0;
+        try {
+            for (; quiesced < ordered.length; quiesced++) {
+                if (!ordered[quiesced].quiesce(quiesceTimeout)) {
+                    LOG.warn("Timed out after " + quiesceTimeout + " ms quiescing " + ordered[quiesced]);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (quiesced < ordered.length) {
+            for (int i = quiesced - 1; i >= 0; i--) {
+                ordered[i].resume();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void resume(BrokerModel... brokerModels) {
+        for (BrokerModel brokerModel : brokerModels) {
+            brokerModel.resume();
+        }
+    }
+
     private void scheduledTasks() {
         int brokerCount = model.getBrokerCount();
         pollBrokers();
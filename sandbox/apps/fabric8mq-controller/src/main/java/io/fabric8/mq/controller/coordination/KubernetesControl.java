@@ -149,6 +149,23 @@ public class KubernetesControl extends BaseBrokerControl {
                 attribute = "TotalConnectionsCount";
                 Number result = (Number) BrokerJmxUtils.getAttribute(client, root, attribute);
                 brokerOverview.setTotalConnections(result.intValue());
+
+                attribute = "TotalEnqueueCount";
+                result = (Number) BrokerJmxUtils.getAttribute(client, root, attribute);
+                brokerOverview.setTotalEnqueueCount(result.longValue());
+
+                attribute = "TotalDequeueCount";
+                result = (Number) BrokerJmxUtils.getAttribute(client, root, attribute);
+                brokerOverview.setTotalDequeueCount(result.longValue());
+
+                attribute = "MemoryPercentUsage";
+                result = (Number) BrokerJmxUtils.getAttribute(client, root, attribute);
+                brokerOverview.setMemoryPercentUsage(result.intValue());
+
+                attribute = "StorePercentUsage";
+                result = (Number) BrokerJmxUtils.getAttribute(client, root, attribute);
+                brokerOverview.setStorePercentUsage(result.intValue());
+
                 populateDestinations(client, root, brokerOverview);
                 brokerModel.setBrokerStatistics(brokerOverview);
 
@@ -181,6 +198,10 @@ public class KubernetesControl extends BaseBrokerControl {
                     brokerDestinationOverview.setNumberOfProducers(Integer.parseInt(producerCount));
                     brokerDestinationOverview.setQueueDepth(Integer.parseInt(queueSize));
                     brokerOverview.addDestinationStatistics(brokerDestinationOverview);
+                    if (type == BrokerDestinationOverview.Type.QUEUE) {
+                        String averageEnqueueTime = BrokerJmxUtils.getAttribute(client, objectName, "AverageEnqueueTime").toString().trim();
+                        brokerOverview.setAverageEnqueueTime(Math.max(brokerOverview.getAverageEnqueueTime(), Double.parseDouble(averageEnqueueTime)));
+                    }
                 }
             }
         } catch (Exception ex) {
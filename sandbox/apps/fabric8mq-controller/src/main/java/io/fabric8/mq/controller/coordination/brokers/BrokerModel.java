@@ -25,6 +25,7 @@ import org.apache.activemq.util.ServiceSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -39,11 +40,13 @@ public class BrokerModel extends ServiceSupport implements BrokerModelMBean {
     private final Pod pod;
     private final BrokerView brokerView;
     private final Model model;
+    private final LeaseGate leaseGate;
 
     public BrokerModel(Pod pod, BrokerView brokerView, Model model) {
         this.pod = pod;
         this.brokerView = brokerView;
         this.model = model;
+        this.leaseGate = new LeaseGate(this);
     }
 
     public Pod getPod() {
@@ -246,22 +249,56 @@ public class BrokerModel extends ServiceSupport implements BrokerModelMBean {
 
     public void setBrokerStatistics(BrokerOverview brokerOverview) {
         brokerView.setBrokerOverview(brokerOverview);
+        if (model != null) {
+            model.brokerStatisticsUpdated(this);
+        }
+    }
+
+    /**
+     * Borrow the transport to this broker for the messageDistribution - it must be closed once the
+     * command(s) have been sent. Blocks if the broker has been quiesced, unless the timeout is negative.
+     *
+     * @param timeout milliseconds to wait for the broker to be resumed - zero waits for ever, and a
+     *                negative timeout throws {@link BrokerQuiescedException} rather than waiting
+     * @return null if there isn't a transport to the broker for the messageDistribution
+     */
+    public BrokerTransport borrowTransport(MessageDistribution messageDistribution, long timeout) throws IOException {
+        leaseGate.acquire(timeout);
+        Transport transport = brokerView.getTransport(messageDistribution);
+        if (transport == null) {
+            leaseGate.release();
+            return null;
+        }
+        return new DefaultBrokerTransport(this, transport);
     }
 
-    public void getReadLock() {
-        brokerView.getReadLock();
+    void returnTransport() {
+        leaseGate.release();
     }
 
-    public void unlockReadLock() {
-        brokerView.unlockReadLock();
+    /**
+     * Stop any more transports being borrowed, and wait for the ones already borrowed to be returned.
+     * Must be followed by {@link #resume()} from the same thread.
+     *
+     * @param timeout milliseconds to wait - zero waits for ever
+     * @return false if the borrowed transports weren't returned in time
+     */
+    public boolean quiesce(long timeout) throws InterruptedException {
+        return leaseGate.quiesce(timeout);
     }
 
-    public void getWriteLock() {
-        brokerView.getWriteLock();
+    public void resume() {
+        leaseGate.resume();
     }
 
-    public void unlockWriteLock() {
-        brokerView.unlockWriteLock();
+    @Override
+    public boolean isQuiesced() {
+        return leaseGate.isQuiesced();
+    }
+
+    @Override
+    public int getBorrowedTransportCount() {
+        return leaseGate.getLeaseCount();
     }
 
     @Override
@@ -271,6 +308,7 @@ public class BrokerModel extends ServiceSupport implements BrokerModelMBean {
 
     @Override
     protected void doStop(ServiceStopper serviceStopper) throws Exception {
+        leaseGate.close();
         serviceStopper.stop(brokerView);
     }
 
@@ -40,4 +40,8 @@ public interface BrokerModelMBean {
     int getTotalConsumerCount();
 
     int getTotalProducerCount();
+
+    boolean isQuiesced();
+
+    int getBorrowedTransportCount();
 }
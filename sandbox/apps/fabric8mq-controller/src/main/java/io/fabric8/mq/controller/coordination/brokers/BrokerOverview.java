@@ -29,6 +29,11 @@ public class BrokerOverview implements Comparable<BrokerOverview> {
     private final Map<ActiveMQDestination, BrokerDestinationOverviewMBean> topicOverviews = new ConcurrentHashMap<>();
     private int totalConnections;
     private boolean blockedProducers;
+    private long totalEnqueueCount;
+    private long totalDequeueCount;
+    private int memoryPercentUsage;
+    private int storePercentUsage;
+    private double averageEnqueueTime;
 
     public Map<ActiveMQDestination, BrokerDestinationOverviewMBean> getQueueOverviews() {
         return queueOverviews;
@@ -80,6 +85,56 @@ public class BrokerOverview implements Comparable<BrokerOverview> {
         this.blockedProducers = blockedProducers;
     }
 
+    /**
+     * @return the number of messages sent to the broker since it started
+     */
+    public long getTotalEnqueueCount() {
+        return totalEnqueueCount;
+    }
+
+    public void setTotalEnqueueCount(long totalEnqueueCount) {
+        this.totalEnqueueCount = totalEnqueueCount;
+    }
+
+    /**
+     * @return the number of messages acknowledged by consumers since the broker started
+     */
+    public long getTotalDequeueCount() {
+        return totalDequeueCount;
+    }
+
+    public void setTotalDequeueCount(long totalDequeueCount) {
+        this.totalDequeueCount = totalDequeueCount;
+    }
+
+    public int getMemoryPercentUsage() {
+        return memoryPercentUsage;
+    }
+
+    public void setMemoryPercentUsage(int memoryPercentUsage) {
+        this.memoryPercentUsage = memoryPercentUsage;
+    }
+
+    public int getStorePercentUsage() {
+        return storePercentUsage;
+    }
+
+    public void setStorePercentUsage(int storePercentUsage) {
+        this.storePercentUsage = storePercentUsage;
+    }
+
+    /**
+     * @return the longest average time (in milliseconds) messages have spent on any one queue before
+     * being dispatched and acknowledged
+     */
+    public double getAverageEnqueueTime() {
+        return averageEnqueueTime;
+    }
+
+    public void setAverageEnqueueTime(double averageEnqueueTime) {
+        this.averageEnqueueTime = averageEnqueueTime;
+    }
+
     @Override
     public int compareTo(BrokerOverview other) {
         int result = other.getQueueOverviews().size() - getQueueOverviews().size();
@@ -0,0 +1,28 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.coordination.brokers;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of waiting when a transport is borrowed from a broker that has been quiesced while
+ * destinations are moved - nothing has been sent, so the command can be held and tried again later
+ */
+public class BrokerQuiescedException extends IOException {
+
+    public BrokerQuiescedException(String message) {
+        super(message);
+    }
+}
@@ -17,8 +17,20 @@ package io.fabric8.mq.controller.coordination.brokers;
 
 import org.apache.activemq.transport.Transport;
 
-public interface BrokerTransport {
+/**
+ * A transport to a broker on loan - the broker can't be quiesced until it has been closed
+ */
+public interface BrokerTransport extends AutoCloseable {
     Transport getTransport();
 
+    /**
+     * Give the transport back - only the first call has any effect
+     */
     void release();
+
+    /**
+     * The same as {@link #release()}
+     */
+    @Override
+    void close();
 }
@@ -33,7 +33,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The BrokerView is used to hold the current state of a broker - typically populated
@@ -44,8 +43,6 @@ public class BrokerView extends ServiceSupport {
     private final List<String> destinations = new ArrayList<>();
     @JsonIgnore
     private final Map<MessageDistribution, Transport> transportMap = new ConcurrentHashMap<>();
-    @JsonIgnore
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private String brokerName;
     private String brokerId;
     private String uri;
@@ -103,14 +100,7 @@ public class BrokerView extends ServiceSupport {
     }
 
     public Transport getTransport(MessageDistribution key) {
-        Transport result = null;
-        readWriteLock.readLock().lock();
-        try {
-            result = transportMap.get(key);
-        } finally {
-            readWriteLock.readLock().unlock();
-        }
-        return result;
+        return transportMap.get(key);
     }
 
     public void addTransport(MessageDistribution messageDistribution, Transport transport) {
@@ -132,7 +122,6 @@ public class BrokerView extends ServiceSupport {
     }
 
     public void removeTransport(Transport transport) {
-        readWriteLock.writeLock().lock();
         for (Map.Entry<MessageDistribution, Transport> entry : transportMap.entrySet()) {
             if (transport.equals(entry.getValue())) {
                 transportMap.remove(entry.getKey());
@@ -178,28 +167,6 @@ public class BrokerView extends ServiceSupport {
         }
     }
 
-    public void getReadLock() {
-        readWriteLock.readLock().lock();
-    }
-
-    public void unlockReadLock() {
-        try {
-            readWriteLock.readLock().unlock();
-        } catch (IllegalMonitorStateException e) {
-        }
-    }
-
-    public void getWriteLock() {
-        readWriteLock.writeLock().lock();
-    }
-
-    public void unlockWriteLock() {
-        try {
-            readWriteLock.writeLock().unlock();
-        } catch (IllegalMonitorStateException e) {
-        }
-    }
-
     public void reset() {
         synchronized (destinations) {
             destinations.clear();
@@ -225,8 +192,7 @@ public class BrokerView extends ServiceSupport {
 
     @Override
     protected void doStop(ServiceStopper serviceStopper) throws Exception {
-        unlockWriteLock();
-        unlockReadLock();
+
     }
 
     @Override
@@ -17,9 +17,12 @@ package io.fabric8.mq.controller.coordination.brokers;
 
 import org.apache.activemq.transport.Transport;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class DefaultBrokerTransport implements BrokerTransport {
     private final BrokerModel brokerModel;
     private final Transport transport;
+    private final AtomicBoolean released = new AtomicBoolean();
 
     public DefaultBrokerTransport(BrokerModel brokerModel, Transport transport) {
         this.brokerModel = brokerModel;
@@ -33,6 +36,13 @@ public class DefaultBrokerTransport implements BrokerTransport {
 
     @Override
     public void release() {
-        brokerModel.unlockReadLock();
+        if (released.compareAndSet(false, true)) {
+            brokerModel.returnTransport();
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
     }
 }
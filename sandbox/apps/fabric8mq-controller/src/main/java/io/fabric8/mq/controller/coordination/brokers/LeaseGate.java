@@ -0,0 +1,204 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.coordination.brokers;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.fabric8.mq.controller.model.Model;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Guards the transports to a broker while destinations are moved on or off it. Sending a command
+ * takes a lease, which - unless the broker is being quiesced - is an increment and a volatile read,
+ * and no lock is taken. Quiescing stops new leases being granted and waits for the ones already
+ * granted to be returned, so once it succeeds nothing is in flight to the broker until it's resumed.
+ * <p>
+ * Only one thread can quiesce the gate at a time. A thread that quiesces more than one broker has to
+ * do it in a consistent order, or it can deadlock with another thread taking leases on the same brokers.
+ */
+class LeaseGate {
+    private static final Timer QUIESCE_WAIT = Model.METRIC_REGISTRY.timer(MetricRegistry.name(LeaseGate.class, "quiesce", "wait"));
+    private static final Timer QUIESCE_HELD = Model.METRIC_REGISTRY.timer(MetricRegistry.name(LeaseGate.class, "quiesce", "held"));
+    private static final Meter QUIESCE_TIMED_OUT = Model.METRIC_REGISTRY.meter(MetricRegistry.name(LeaseGate.class, "quiesce", "timedOut"));
+    private static final Meter LEASES_BLOCKED = Model.METRIC_REGISTRY.meter(MetricRegistry.name(LeaseGate.class, "leases", "blocked"));
+    private static final Meter LEASES_REFUSED = Model.METRIC_REGISTRY.meter(MetricRegistry.name(LeaseGate.class, "leases", "refused"));
+    private static final Meter LEASES_TIMED_OUT = Model.METRIC_REGISTRY.meter(MetricRegistry.name(LeaseGate.class, "leases", "timedOut"));
+    private final Object owner;
+    private final AtomicInteger leases = new AtomicInteger();
+    private final ReentrantLock exclusive = new ReentrantLock();
+    private final Object monitor = new Object();
+    private volatile boolean quiescing;
+    private volatile boolean closed;
+    private long quiescedAt;
+
+    LeaseGate(Object owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Take a lease - which must be given back with {@link #release()}
+     *
+     * @param timeout milliseconds to wait if the gate is quiesced - zero waits for ever, and a negative
+     *                timeout doesn't wait at all
+     * @throws BrokerQuiescedException if the gate is quiesced, and the timeout is negative
+     * @throws IOException             if the gate has been closed, or wasn't resumed in time
+     */
+    void acquire(long timeout) throws IOException {
+        if (closed) {
+            throw new IOException(owner + " is no longer available");
+        }
+        leases.incrementAndGet();
+        if (quiescing) {
+            //back out - so the thread quiescing the gate isn't kept waiting for us
+            release();
+            if (timeout < 0) {
+                LEASES_REFUSED.mark();
+                throw new BrokerQuiescedException(owner + " is quiesced");
+            }
+            awaitResumed(timeout);
+        }
+    }
+
+    void release() {
+        if (leases.decrementAndGet() == 0 && quiescing) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stop any new leases being granted, and wait for the outstanding ones to be released. Does nothing
+     * if the calling thread has already quiesced the gate.
+     *
+     * @param timeout milliseconds to wait - zero waits for ever
+     * @return false if the leases weren't all released in time - in which case the gate isn't quiesced
+     */
+    boolean quiesce(long timeout) throws InterruptedException {
+        if (exclusive.isHeldByCurrentThread()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (timeout > 0) {
+            if (!exclusive.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+                QUIESCE_TIMED_OUT.mark();
+                return false;
+            }
+        } else {
+            exclusive.lockInterruptibly();
+        }
+        quiescing = true;
+        try {
+            synchronized (monitor) {
+                while (leases.get() > 0) {
+                    if (timeout > 0) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            QUIESCE_TIMED_OUT.mark();
+                            reopen();
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                    } else {
+                        monitor.wait();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            reopen();
+            throw e;
+        }
+        quiescedAt = System.nanoTime();
+        QUIESCE_WAIT.update(quiescedAt - start, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * Let leases be granted again - only has an effect for the thread that quiesced the gate
+     */
+    void resume() {
+        if (exclusive.isHeldByCurrentThread()) {
+            QUIESCE_HELD.update(System.nanoTime() - quiescedAt, TimeUnit.NANOSECONDS);
+            reopen();
+        }
+    }
+
+    /**
+     * Refuse any more leases - any thread waiting for the gate to be resumed fails straight away
+     */
+    void close() {
+        closed = true;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    boolean isQuiesced() {
+        return quiescing;
+    }
+
+    int getLeaseCount() {
+        return leases.get();
+    }
+
+    private void reopen() {
+        quiescing = false;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+        exclusive.unlock();
+    }
+
+    private void awaitResumed(long timeout) throws IOException {
+        LEASES_BLOCKED.mark();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            synchronized (monitor) {
+                while (true) {
+                    if (closed) {
+                        throw new IOException(owner + " is no longer available");
+                    }
+                    if (!quiescing) {
+                        leases.incrementAndGet();
+                        if (!quiescing) {
+                            return;
+                        }
+                        release();
+                    }
+                    if (timeout > 0) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            LEASES_TIMED_OUT.mark();
+                            throw new IOException("Timed out after " + timeout + " ms waiting for " + owner + " to be resumed");
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                    } else {
+                        monitor.wait();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + owner + " to be resumed");
+        }
+    }
+}
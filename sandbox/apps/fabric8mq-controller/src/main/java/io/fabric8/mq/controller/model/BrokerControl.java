@@ -21,13 +21,31 @@ import io.fabric8.mq.controller.coordination.brokers.BrokerTransport;
 import org.apache.activemq.Service;
 import org.apache.activemq.command.ActiveMQDestination;
 
+import java.io.IOException;
 import java.util.Collection;
 
 public interface BrokerControl extends Service {
 
-    Collection<BrokerTransport> getTransports(MessageDistribution messageDistribution);
-
-    BrokerTransport getTransport(MessageDistribution messageDistribution, ActiveMQDestination destination);
+    /**
+     * Borrow the transports to every broker - each one must be released once the command has been sent.
+     * Never waits for a quiesced broker, as the caller may be an event loop.
+     *
+     * @throws io.fabric8.mq.controller.coordination.brokers.BrokerQuiescedException if a broker is quiesced
+     */
+    Collection<BrokerTransport> getTransports(MessageDistribution messageDistribution) throws IOException;
+
+    /**
+     * Borrow the transport to the broker the destination is routed to - it must be closed once the command has been sent.
+     * Never waits for a quiesced broker, as the caller may be an event loop.
+     *
+     * @throws io.fabric8.mq.controller.coordination.brokers.BrokerQuiescedException if the broker is quiesced
+     */
+    BrokerTransport getTransport(MessageDistribution messageDistribution, ActiveMQDestination destination) throws IOException;
+
+    /**
+     * @return milliseconds a command for a quiesced broker is held for before it's rejected - zero holds it for ever
+     */
+    long getLeaseTimeout();
 
     void addMessageDistribution(MessageDistribution messageDistribution);
 
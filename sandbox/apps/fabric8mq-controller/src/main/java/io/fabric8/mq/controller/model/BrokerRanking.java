@@ -0,0 +1,112 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.model;
+
+import io.fabric8.mq.controller.coordination.brokers.BrokerModel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The brokers ordered by load. A broker's load is only calculated when its statistics are updated,
+ * so finding the least or most loaded broker doesn't walk the destinations of every broker - and
+ * the order stays the same between updates, however many times it's asked for.
+ */
+class BrokerRanking {
+    private final TreeSet<Rank> ranks = new TreeSet<>();
+    private final Map<BrokerModel, Rank> rankMap = new HashMap<>();
+
+    synchronized void add(BrokerModel brokerModel, int load) {
+        Rank rank = new Rank(brokerModel, load);
+        Rank old = rankMap.put(brokerModel, rank);
+        if (old != null) {
+            ranks.remove(old);
+        }
+        ranks.add(rank);
+    }
+
+    /**
+     * Re-rank a broker that has already been added - does nothing if it hasn't been
+     */
+    synchronized void update(BrokerModel brokerModel, int load) {
+        Rank old = rankMap.get(brokerModel);
+        if (old != null && old.load != load) {
+            ranks.remove(old);
+            Rank rank = new Rank(brokerModel, load);
+            rankMap.put(brokerModel, rank);
+            ranks.add(rank);
+        }
+    }
+
+    synchronized void remove(BrokerModel brokerModel) {
+        Rank rank = rankMap.remove(brokerModel);
+        if (rank != null) {
+            ranks.remove(rank);
+        }
+    }
+
+    synchronized BrokerModel getLeastLoaded() {
+        return ranks.isEmpty() ? null : ranks.first().brokerModel;
+    }
+
+    synchronized BrokerModel getMostLoaded() {
+        return ranks.isEmpty() ? null : ranks.last().brokerModel;
+    }
+
+    /**
+     * @return the broker ranked immediately above brokerModel - or null if there isn't one
+     */
+    synchronized BrokerModel getNext(BrokerModel brokerModel) {
+        BrokerModel result = null;
+        Rank rank = rankMap.get(brokerModel);
+        if (rank != null) {
+            Rank next = ranks.higher(rank);
+            if (next != null) {
+                result = next.brokerModel;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the load the broker is ranked by - or -1 if it hasn't been added
+     */
+    synchronized int getLoad(BrokerModel brokerModel) {
+        Rank rank = rankMap.get(brokerModel);
+        return rank != null ? rank.load : -1;
+    }
+
+    private static class Rank implements Comparable<Rank> {
+        private final BrokerModel brokerModel;
+        private final String brokerId;
+        private final int load;
+
+        Rank(BrokerModel brokerModel, int load) {
+            this.brokerModel = brokerModel;
+            //the id is fixed here - a broker's position mustn't change while it's in the set
+            this.brokerId = brokerModel.getBrokerId();
+            this.load = load;
+        }
+
+        @Override
+        public int compareTo(Rank other) {
+            if (load != other.load) {
+                return load < other.load ? -1 : 1;
+            }
+            return brokerId.compareTo(other.brokerId);
+        }
+    }
+}
@@ -22,12 +22,15 @@ import io.fabric8.mq.controller.coordination.brokers.BrokerModel;
 import io.fabric8.mq.controller.coordination.brokers.BrokerOverview;
 import io.fabric8.mq.controller.multiplexer.Multiplexer;
 import io.fabric8.mq.controller.multiplexer.MultiplexerInput;
+import io.fabric8.mq.controller.sharding.ConsistentHashRing;
 import io.fabric8.mq.controller.util.MoveDestinationWorker;
 import io.fabric8.utils.JMXUtils;
 import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.filter.DestinationFilter;
 import org.apache.activemq.filter.DestinationMap;
 import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
+import org.apache.deltaspike.core.api.config.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,29 +42,82 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 @ApplicationScoped
 @Default
 public class DefaultModel extends ServiceSupport implements Model {
+    public static final String SHARDING_LEAST_LOADED = "least-loaded";
+    public static final String SHARDING_CONSISTENT_HASH = "consistent-hash";
     private static Logger LOG = LoggerFactory.getLogger(DefaultModel.class);
     private final ConcurrentMap<Object, ObjectName> objectNameMap = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, BrokerModel> brokerModelMap = new ConcurrentHashMap<>();
+    private final BrokerRanking brokerRanking = new BrokerRanking();
     private final DestinationMap destinationMap = new DestinationMap();
     @Inject
     BrokerLimitsConfig brokerLimitsConfig;
     @Inject
+    LoadModel loadModel;
+    @Inject
     AsyncExecutors asyncExecutors;
+    @Inject
+    @ConfigProperty(name = "SHARDING_STRATEGY", defaultValue = SHARDING_LEAST_LOADED)
+    private String shardingStrategy = SHARDING_LEAST_LOADED;
+    @Inject
+    @ConfigProperty(name = "SHARDING_VIRTUAL_NODES", defaultValue = "128")
+    private int shardingVirtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+    //consistent-hash sharding: destinations that live somewhere other than where they hash to
+    private final ConcurrentMap<ActiveMQDestination, BrokerModel> destinationOverrides = new ConcurrentHashMap<>();
+    private volatile ConsistentHashRing<BrokerModel> brokerRing = ConsistentHashRing.empty();
+    //least-loaded sharding: the brokers for each exact destination in the destinationMap - each set is immutable
+    private final ConcurrentMap<ActiveMQDestination, Set<BrokerModel>> routes = new ConcurrentHashMap<>();
+    //the wildcard destinations in the destinationMap, and the brokers put there for each
+    private final Map<ActiveMQDestination, Set<BrokerModel>> patternRoutes = new HashMap<>();
+    private volatile List<PatternRoute> patternList = Collections.emptyList();
+    private volatile long routingVersion;
     private JmxReporter jmxReporter = JmxReporter.forRegistry(METRIC_REGISTRY).inDomain(DEFAULT_JMX_DOMAIN).build();
+    private final ExecutorService jmxRegistrar = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "DestinationStatisticsRegistrar");
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     public BrokerLimitsConfig getBrokerLimitsConfig() {
         return brokerLimitsConfig;
     }
 
+    public String getShardingStrategy() {
+        return shardingStrategy;
+    }
+
+    /**
+     * {@link #SHARDING_LEAST_LOADED} gives a new destination to the least loaded broker, and remembers it;
+     * {@link #SHARDING_CONSISTENT_HASH} gives it to the broker it hashes to, remembering only the exceptions
+     */
+    public void setShardingStrategy(String shardingStrategy) {
+        this.shardingStrategy = shardingStrategy;
+        rebuildBrokerRing();
+    }
+
+    public boolean isConsistentHashSharding() {
+        return SHARDING_CONSISTENT_HASH.equalsIgnoreCase(shardingStrategy);
+    }
+
     @Override
     public void add(Multiplexer multiplexer) {
         try {
@@ -95,6 +151,7 @@ public class DefaultModel extends ServiceSupport implements Model {
     @Override
     public void add(BrokerModel brokerModel) {
         if (brokerModelMap.putIfAbsent(brokerModel.getBrokerId(), brokerModel) == null) {
+            brokerRanking.add(brokerModel, loadModel.update(brokerModel));
             try {
                 String name = getClass().getPackage().getName() + ".broker." + brokerModel.getBrokerId();
                 ObjectName objectName = new ObjectName(DEFAULT_JMX_DOMAIN, "name", name);
@@ -102,6 +159,7 @@ public class DefaultModel extends ServiceSupport implements Model {
             } catch (Throwable e) {
                 LOG.error("Failed to register " + brokerModel, e);
             }
+            rebuildBrokerRing();
         }
     }
 
@@ -109,15 +167,48 @@ public class DefaultModel extends ServiceSupport implements Model {
     public void remove(BrokerModel brokerModel) {
         if (brokerModel != null) {
             if (brokerModelMap.remove(brokerModel.getBrokerId()) != null) {
-                brokerModel.unlockWriteLock();
-                brokerModel.unlockReadLock();
+                brokerRanking.remove(brokerModel);
+                loadModel.remove(brokerModel);
                 unregisterInJmx(brokerModel);
+                rebuildBrokerRing();
             }
         }
     }
 
+    /**
+     * Registration with JMX is done on a separate thread - in the order it was asked for - so it's never on
+     * the path of the client command that caused it
+     */
+    @Override
+    public void register(final MultiplexerInput multiplexerInput, final DestinationStatisticsMBean destinationStatistics) {
+        registerAsync(new Runnable() {
+            @Override
+            public void run() {
+                doRegister(destinationStatistics);
+            }
+        });
+    }
+
     @Override
-    public void register(MultiplexerInput multiplexerInput, DestinationStatisticsMBean destinationStatistics) {
+    public void unregister(final MultiplexerInput multiplexerInput, final DestinationStatisticsMBean destinationStatistics) {
+        registerAsync(new Runnable() {
+            @Override
+            public void run() {
+                doUnregister(destinationStatistics);
+            }
+        });
+    }
+
+    private void registerAsync(Runnable runnable) {
+        try {
+            jmxRegistrar.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            //we are stopping
+            runnable.run();
+        }
+    }
+
+    private void doRegister(DestinationStatisticsMBean destinationStatistics) {
         try {
             ObjectName objectName = new ObjectName(DEFAULT_JMX_DOMAIN, "name", destinationStatistics.getName());
             registerInJmx(objectName, destinationStatistics);
@@ -127,8 +218,7 @@ public class DefaultModel extends ServiceSupport implements Model {
         }
     }
 
-    @Override
-    public void unregister(MultiplexerInput multiplexer, DestinationStatisticsMBean destinationStatistics) {
+    private void doUnregister(DestinationStatisticsMBean destinationStatistics) {
         try {
             destinationStatistics.stop();
             unregisterInJmx(destinationStatistics);
@@ -139,59 +229,24 @@ public class DefaultModel extends ServiceSupport implements Model {
 
     @Override
     public BrokerModel getMostLoadedBroker() {
-        BrokerModel result = null;
-        if (!brokerModelMap.isEmpty()) {
-            List<BrokerModel> list = new ArrayList<>(brokerModelMap.values());
-            if (!list.isEmpty()) {
-                if (list.size() > 1) {
-                    Collections.sort(list, new BrokerComparable());
-                    result = list.get(list.size() - 1);
-                } else {
-                    result = list.get(0);
-                }
-            }
-        }
-        return result;
+        return brokerRanking.getMostLoaded();
     }
 
     @Override
     public BrokerModel getLeastLoadedBroker() {
-        BrokerModel result = null;
-        if (!brokerModelMap.isEmpty()) {
-            List<BrokerModel> list = new ArrayList<>(brokerModelMap.values());
-            if (!list.isEmpty()) {
-                if (list.size() > 1) {
-                    Collections.sort(list, new BrokerComparable());
-                }
-                result = list.get(0);
-            }
-        }
-        return result;
+        return brokerRanking.getLeastLoaded();
     }
 
     @Override
     public BrokerModel getNextLeastLoadedBroker(BrokerModel brokerModel) {
-        BrokerModel result = null;
-        if (!brokerModelMap.isEmpty()) {
-            List<BrokerModel> list = new ArrayList<>(brokerModelMap.values());
-            if (!list.isEmpty()) {
-                if (list.size() > 1) {
-                    Collections.sort(list, new BrokerComparable());
-                }
+        return brokerRanking.getNext(brokerModel);
+    }
 
-                for (int i = 0; i < list.size(); i++) {
-                    BrokerModel bm = list.get(i);
-                    if (bm.equals(brokerModel)) {
-                        int offset = i + 1;
-                        if (list.size() > offset) {
-                            result = list.get(offset);
-                        }
-                        break;
-                    }
-                }
-            }
+    @Override
+    public void brokerStatisticsUpdated(BrokerModel brokerModel) {
+        if (brokerModelMap.containsKey(brokerModel.getBrokerId())) {
+            brokerRanking.update(brokerModel, loadModel.update(brokerModel));
         }
-        return result;
     }
 
     @Override
@@ -326,46 +381,190 @@ public class DefaultModel extends ServiceSupport implements Model {
         return getBrokerCount() >= brokerLimitsConfig.getMaxNumberOfBrokers();
     }
 
+    /**
+     * @return the load the broker is currently ranked by - zero if it hasn't been added
+     */
     @Override
     public int getLoad(BrokerModel brokerModel) {
-        int load = 0;
-        if (brokerModel != null) {
-            BrokerOverview brokerOverview = brokerModel.getBrokerOverview();
-            if (brokerOverview != null) {
-                int numConnections = brokerOverview.getTotalConnections();
-                int connectionLoad = numConnections > 0 ? (numConnections * 30) / brokerLimitsConfig.getMaxConnectionsPerBroker() : 0;
-                int numDestinations = brokerOverview.getTotalActiveDestinations();
-                int destinationLoad = numDestinations > 0 ? (numDestinations * 35) / brokerLimitsConfig.getMaxDestinationsPerBroker() : 0;
-                int queueDepth = brokerOverview.getTotalQueueDepth();
-                int queueDepthLoad = queueDepth > 0 ? (queueDepth * 35) / brokerLimitsConfig.getMaxDestinationDepth() : 0;
-                return destinationLoad + queueDepthLoad;
-            }
-        }
-        return load;
+        return Math.max(brokerRanking.getLoad(brokerModel), 0);
     }
 
     @Override
     public Set<BrokerModel> getBrokersForDestination(ActiveMQDestination destination) {
+        if (isConsistentHashSharding()) {
+            BrokerModel brokerModel = getHashedBroker(destination);
+            return brokerModel != null ? Collections.singleton(brokerModel) : null;
+        }
+        if (!isPattern(destination)) {
+            Set<BrokerModel> brokers = routes.get(destination);
+            //a routed destination already includes the wildcards that match it
+            return brokers != null ? brokers : getPatternBrokers(destination);
+        }
         return (Set<BrokerModel>) destinationMap.get(destination);
     }
 
+    /**
+     * @return incremented every time the routing of a destination to a broker changes
+     */
+    public long getRoutingVersion() {
+        return routingVersion;
+    }
+
     @Override
     public void addBrokerForDestination(ActiveMQDestination destination, BrokerModel brokerModel) {
-        destinationMap.put(destination, brokerModel);
+        if (isConsistentHashSharding()) {
+            if (brokerModel.equals(brokerRing.get(destination.getQualifiedName()))) {
+                destinationOverrides.remove(destination);
+            } else {
+                destinationOverrides.put(destination, brokerModel);
+            }
+        } else {
+            synchronized (destinationMap) {
+                destinationMap.put(destination, brokerModel);
+                updateRoute(destination, brokerModel, true);
+            }
+        }
     }
 
     @Override
     public BrokerModel addBrokerForDestination(ActiveMQDestination destination) {
+        if (isConsistentHashSharding()) {
+            return getHashedBroker(destination);
+        }
         BrokerModel brokerModel = getLeastLoadedBroker();
         if (brokerModel != null) {
-            destinationMap.put(destination, brokerModel);
+            synchronized (destinationMap) {
+                destinationMap.put(destination, brokerModel);
+                updateRoute(destination, brokerModel, true);
+            }
         }
         return brokerModel;
     }
 
     @Override
     public void removeBrokerFromDestination(ActiveMQDestination destination, BrokerModel brokerModel) {
-        destinationMap.remove(destination, brokerModel);
+        if (isConsistentHashSharding()) {
+            destinationOverrides.remove(destination, brokerModel);
+        } else {
+            synchronized (destinationMap) {
+                destinationMap.remove(destination, brokerModel);
+                updateRoute(destination, brokerModel, false);
+            }
+        }
+    }
+
+    /**
+     * Update the routes after the destinationMap has changed - called holding the lock on the destinationMap,
+     * so updates can't be lost. Each exact destination resolves to its own brokers plus those of any wildcard
+     * that matches it, just as the destinationMap would. Only adding or removing a wildcard touches more than
+     * the one route.
+     */
+    private void updateRoute(ActiveMQDestination destination, BrokerModel brokerModel, boolean added) {
+        if (destination.isComposite()) {
+            for (ActiveMQDestination child : destination.getCompositeDestinations()) {
+                updateRoute(child, brokerModel, added);
+            }
+        } else if (destination.isPattern()) {
+            Set<BrokerModel> brokers = patternRoutes.get(destination);
+            if (added) {
+                if (brokers == null) {
+                    brokers = new HashSet<>();
+                    patternRoutes.put(destination, brokers);
+                }
+                brokers.add(brokerModel);
+            } else if (brokers != null) {
+                brokers.remove(brokerModel);
+                if (brokers.isEmpty()) {
+                    patternRoutes.remove(destination);
+                }
+            }
+            List<PatternRoute> list = new ArrayList<>(patternRoutes.size());
+            for (Map.Entry<ActiveMQDestination, Set<BrokerModel>> entry : patternRoutes.entrySet()) {
+                list.add(new PatternRoute(entry.getKey(), entry.getValue()));
+            }
+            patternList = Collections.unmodifiableList(list);
+            DestinationFilter filter = DestinationFilter.parseFilter(destination);
+            for (ActiveMQDestination routed : new ArrayList<>(routes.keySet())) {
+                if (filter.matches(routed)) {
+                    refreshRoute(routed);
+                }
+            }
+        } else {
+            refreshRoute(destination);
+        }
+        routingVersion++;
+    }
+
+    private void refreshRoute(ActiveMQDestination destination) {
+        Set<BrokerModel> brokers = (Set<BrokerModel>) destinationMap.get(destination);
+        if (brokers == null || brokers.isEmpty()) {
+            routes.remove(destination);
+        } else {
+            routes.put(destination, Collections.unmodifiableSet(new HashSet<>(brokers)));
+        }
+    }
+
+    private Set<BrokerModel> getPatternBrokers(ActiveMQDestination destination) {
+        Set<BrokerModel> result = null;
+        for (PatternRoute patternRoute : patternList) {
+            if (patternRoute.filter.matches(destination)) {
+                if (result == null) {
+                    result = new HashSet<>();
+                }
+                result.addAll(patternRoute.brokers);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPattern(ActiveMQDestination destination) {
+        return destination.isComposite() || destination.isPattern();
+    }
+
+    private BrokerModel getHashedBroker(ActiveMQDestination destination) {
+        BrokerModel brokerModel = destinationOverrides.get(destination);
+        if (brokerModel == null) {
+            brokerModel = brokerRing.get(destination.getQualifiedName());
+        }
+        return brokerModel;
+    }
+
+    /**
+     * Called whenever a broker comes or goes. Destinations that already have messages or producers on a
+     * broker stay there (as overrides) rather than being stranded by the new ring - they can be moved
+     * later by distributing the load, like any other destination.
+     */
+    private synchronized void rebuildBrokerRing() {
+        if (!isConsistentHashSharding()) {
+            brokerRing = ConsistentHashRing.empty();
+            destinationOverrides.clear();
+            return;
+        }
+        ConsistentHashRing.Builder<BrokerModel> builder = ConsistentHashRing.builder(shardingVirtualNodes);
+        for (BrokerModel brokerModel : brokerModelMap.values()) {
+            //the brokers are all created from the same template - so they all have the same capacity
+            builder.add(brokerModel.getBrokerId(), brokerModel, 1);
+        }
+        ConsistentHashRing<BrokerModel> ring = builder.build();
+
+        for (Iterator<Map.Entry<ActiveMQDestination, BrokerModel>> iterator = destinationOverrides.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<ActiveMQDestination, BrokerModel> entry = iterator.next();
+            BrokerModel brokerModel = entry.getValue();
+            if (!brokerModelMap.containsKey(brokerModel.getBrokerId()) || brokerModel.equals(ring.get(entry.getKey().getQualifiedName()))) {
+                iterator.remove();
+            }
+        }
+        int pinned = 0;
+        for (BrokerModel brokerModel : brokerModelMap.values()) {
+            for (ActiveMQDestination destination : brokerModel.getActiveDestinations()) {
+                if (!destinationOverrides.containsKey(destination) && !brokerModel.equals(ring.get(destination.getQualifiedName()))) {
+                    destinationOverrides.put(destination, brokerModel);
+                    pinned++;
+                }
+            }
+        }
+        brokerRing = ring;
+        LOG.info("Sharding destinations across " + ring.getNodes().size() + " brokers, " + pinned + " active destinations pinned to their current broker");
     }
 
     @Override
@@ -411,6 +610,8 @@ public class DefaultModel extends ServiceSupport implements Model {
 
     @Override
     protected void doStop(ServiceStopper serviceStopper) throws Exception {
+        //let anything already queued finish
+        jmxRegistrar.shutdown();
         jmxReporter.stop();
     }
 
@@ -426,15 +627,13 @@ public class DefaultModel extends ServiceSupport implements Model {
         }
     }
 
-    private class BrokerComparable implements Comparator<BrokerModel> {
+    private static class PatternRoute {
+        final DestinationFilter filter;
+        final Set<BrokerModel> brokers;
 
-        @Override
-        public int compare(BrokerModel broker1, BrokerModel broker2) {
-            int result = 0;
-            if (broker1 != broker2) {
-                result = getLoad(broker1) - getLoad(broker2);
-            }
-            return result;
+        PatternRoute(ActiveMQDestination pattern, Set<BrokerModel> brokers) {
+            this.filter = DestinationFilter.parseFilter(pattern);
+            this.brokers = Collections.unmodifiableSet(new HashSet<>(brokers));
         }
     }
 
@@ -18,7 +18,9 @@ package io.fabric8.mq.controller.model;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricSet;
+import io.fabric8.mq.controller.util.LazyMeter;
 import org.apache.activemq.command.ActiveMQDestination;
 import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
@@ -32,8 +34,9 @@ public class DestinationStatistics extends ServiceSupport implements Destination
     private final Map<String, Metric> map = new HashMap<>();
     private final Counter consumers = new Counter();
     private final Counter producers = new Counter();
-    private final Meter inboundMessages = new Meter();
-    private final Meter outboundMessages = new Meter();
+    //marked for every message - so the rates are only calculated when they are read
+    private final Meter inboundMessages = new LazyMeter();
+    private final Meter outboundMessages = new LazyMeter();
 
     public DestinationStatistics(String title, ActiveMQDestination activeMQDestination) {
         this.activeMQDestination = activeMQDestination;
@@ -92,9 +95,13 @@ public class DestinationStatistics extends ServiceSupport implements Destination
 
     @Override
     protected void doStop(ServiceStopper serviceStopper) throws Exception {
-        for (String key : map.keySet()) {
-            Model.METRIC_REGISTRY.remove(key);
-        }
+        //only remove our own metrics - a replacement with the same name may have been registered already
+        Model.METRIC_REGISTRY.removeMatching(new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return map.get(name) == metric;
+            }
+        });
     }
 
     @Override
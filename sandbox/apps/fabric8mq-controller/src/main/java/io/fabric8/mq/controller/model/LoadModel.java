@@ -0,0 +1,38 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.model;
+
+import io.fabric8.mq.controller.coordination.brokers.BrokerModel;
+
+/**
+ * Works out how loaded a broker is from the statistics polled from it. The brokers are ranked by
+ * their load to decide where new destinations go, which destinations to move, and when to scale.
+ * <p>
+ * The {@link WeightedLoadModel} is used unless another implementation is enabled as a CDI alternative.
+ */
+public interface LoadModel {
+
+    /**
+     * Called every time new statistics have been polled from the broker
+     *
+     * @return the load of the broker - 100 is a broker that has reached its limits
+     */
+    int update(BrokerModel brokerModel);
+
+    /**
+     * Forget anything held for a broker that has been removed
+     */
+    void remove(BrokerModel brokerModel);
+}
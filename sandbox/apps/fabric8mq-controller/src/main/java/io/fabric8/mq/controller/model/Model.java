@@ -64,6 +64,11 @@ public interface Model extends Service {
 
     int getLoad(BrokerModel brokerModel);
 
+    /**
+     * Called when new statistics have been collected for the broker, so it can be re-ranked by load
+     */
+    void brokerStatisticsUpdated(BrokerModel brokerModel);
+
     BrokerModel getBrokerById(String id);
 
     Collection<BrokerModel> getBrokers();
@@ -0,0 +1,238 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.model;
+
+import io.fabric8.mq.controller.coordination.brokers.BrokerModel;
+import io.fabric8.mq.controller.coordination.brokers.BrokerOverview;
+import org.apache.deltaspike.core.api.config.ConfigProperty;
+
+import javax.inject.Inject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The load of a broker is the weighted average of how close it is to each of its limits - connections,
+ * active destinations, queue depth, message throughput, memory usage, store usage and dispatch latency.
+ * Throughput is calculated from the change in the enqueue and dequeue counts since the broker was last
+ * polled.
+ * <p>
+ * The load is smoothed with an exponentially weighted moving average over successive polls, so a
+ * burst of traffic doesn't immediately cause destinations to be moved, or brokers to be created.
+ */
+public class WeightedLoadModel implements LoadModel {
+    @Inject
+    BrokerLimitsConfig brokerLimitsConfig;
+    @Inject
+    @ConfigProperty(name = "LOAD_WEIGHT_CONNECTIONS", defaultValue = "15")
+    private int connectionsWeight = 15;
+    @Inject
+    @ConfigProperty(name = "LOAD_WEIGHT_DESTINATIONS", defaultValue = "20")
+    private int destinationsWeight = 20;
+    @Inject
+    @ConfigProperty(name = "LOAD_WEIGHT_QUEUE_DEPTH", defaultValue = "25")
+    private int queueDepthWeight = 25;
+    @Inject
+    @ConfigProperty(name = "LOAD_WEIGHT_THROUGHPUT", defaultValue = "10")
+    private int throughputWeight = 10;
+    @Inject
+    @ConfigProperty(name = "LOAD_WEIGHT_MEMORY", defaultValue = "10")
+    private int memoryWeight = 10;
+    @Inject
+    @ConfigProperty(name = "LOAD_WEIGHT_STORE", defaultValue = "10")
+    private int storeWeight = 10;
+    @Inject
+    @ConfigProperty(name = "LOAD_WEIGHT_LATENCY", defaultValue = "10")
+    private int latencyWeight = 10;
+    @Inject
+    @ConfigProperty(name = "LOAD_MAX_MESSAGE_RATE", defaultValue = "1000")
+    private int maxMessageRate = 1000;
+    @Inject
+    @ConfigProperty(name = "LOAD_MAX_DISPATCH_LATENCY", defaultValue = "1000")
+    private int maxDispatchLatency = 1000;
+    @Inject
+    @ConfigProperty(name = "LOAD_SMOOTHING", defaultValue = "0.5")
+    private double smoothing = 0.5;
+    private final ConcurrentMap<String, BrokerLoad> brokerLoads = new ConcurrentHashMap<>();
+
+    @Override
+    public int update(BrokerModel brokerModel) {
+        BrokerOverview brokerOverview = brokerModel.getBrokerOverview();
+        if (brokerOverview == null) {
+            return 0;
+        }
+        BrokerLoad brokerLoad = brokerLoads.get(brokerModel.getBrokerId());
+        if (brokerLoad == null) {
+            brokerLoad = new BrokerLoad();
+            BrokerLoad existing = brokerLoads.putIfAbsent(brokerModel.getBrokerId(), brokerLoad);
+            if (existing != null) {
+                brokerLoad = existing;
+            }
+        }
+        return brokerLoad.update(brokerOverview);
+    }
+
+    @Override
+    public void remove(BrokerModel brokerModel) {
+        brokerLoads.remove(brokerModel.getBrokerId());
+    }
+
+    /**
+     * @return the load of a broker with these statistics, and throughput of messagesPerSecond - before smoothing
+     */
+    double calculateLoad(BrokerOverview brokerOverview, double messagesPerSecond) {
+        double load = 0;
+        load += connectionsWeight * ratio(brokerOverview.getTotalConnections(), brokerLimitsConfig.getMaxConnectionsPerBroker());
+        load += destinationsWeight * ratio(brokerOverview.getTotalActiveDestinations(), brokerLimitsConfig.getMaxDestinationsPerBroker());
+        load += queueDepthWeight * ratio(brokerOverview.getTotalQueueDepth(), brokerLimitsConfig.getMaxDestinationDepth());
+        load += throughputWeight * ratio(messagesPerSecond, maxMessageRate);
+        load += memoryWeight * ratio(brokerOverview.getMemoryPercentUsage(), 100);
+        load += storeWeight * ratio(brokerOverview.getStorePercentUsage(), 100);
+        load += latencyWeight * ratio(brokerOverview.getAverageEnqueueTime(), maxDispatchLatency);
+        int totalWeight = connectionsWeight + destinationsWeight + queueDepthWeight + throughputWeight + memoryWeight + storeWeight + latencyWeight;
+        return totalWeight > 0 ? (load * 100) / totalWeight : 0;
+    }
+
+    private static double ratio(double value, double limit) {
+        return value > 0 && limit > 0 ? value / limit : 0;
+    }
+
+    public void setBrokerLimitsConfig(BrokerLimitsConfig brokerLimitsConfig) {
+        this.brokerLimitsConfig = brokerLimitsConfig;
+    }
+
+    public int getConnectionsWeight() {
+        return connectionsWeight;
+    }
+
+    public void setConnectionsWeight(int connectionsWeight) {
+        this.connectionsWeight = connectionsWeight;
+    }
+
+    public int getDestinationsWeight() {
+        return destinationsWeight;
+    }
+
+    public void setDestinationsWeight(int destinationsWeight) {
+        this.destinationsWeight = destinationsWeight;
+    }
+
+    public int getQueueDepthWeight() {
+        return queueDepthWeight;
+    }
+
+    public void setQueueDepthWeight(int queueDepthWeight) {
+        this.queueDepthWeight = queueDepthWeight;
+    }
+
+    public int getThroughputWeight() {
+        return throughputWeight;
+    }
+
+    public void setThroughputWeight(int throughputWeight) {
+        this.throughputWeight = throughputWeight;
+    }
+
+    public int getMemoryWeight() {
+        return memoryWeight;
+    }
+
+    public void setMemoryWeight(int memoryWeight) {
+        this.memoryWeight = memoryWeight;
+    }
+
+    public int getStoreWeight() {
+        return storeWeight;
+    }
+
+    public void setStoreWeight(int storeWeight) {
+        this.storeWeight = storeWeight;
+    }
+
+    public int getLatencyWeight() {
+        return latencyWeight;
+    }
+
+    public void setLatencyWeight(int latencyWeight) {
+        this.latencyWeight = latencyWeight;
+    }
+
+    public int getMaxMessageRate() {
+        return maxMessageRate;
+    }
+
+    /**
+     * @param maxMessageRate messages enqueued and dequeued per second that a broker can sustain
+     */
+    public void setMaxMessageRate(int maxMessageRate) {
+        this.maxMessageRate = maxMessageRate;
+    }
+
+    public int getMaxDispatchLatency() {
+        return maxDispatchLatency;
+    }
+
+    /**
+     * @param maxDispatchLatency milliseconds a message can wait on a queue before the broker is considered fully loaded
+     */
+    public void setMaxDispatchLatency(int maxDispatchLatency) {
+        this.maxDispatchLatency = maxDispatchLatency;
+    }
+
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * @param smoothing the weight (between 0 and 1) given to the latest statistics - 1 (or 0) turns smoothing off
+     */
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    private class BrokerLoad {
+        private long lastUpdate;
+        private long lastMessageCount = -1;
+        private double messagesPerSecond;
+        private double load = -1;
+
+        synchronized int update(BrokerOverview brokerOverview) {
+            long now = System.nanoTime();
+            long messageCount = brokerOverview.getTotalEnqueueCount() + brokerOverview.getTotalDequeueCount();
+            if (lastMessageCount < 0 || messageCount < lastMessageCount) {
+                //first poll, or the broker has been restarted
+                messagesPerSecond = 0;
+                lastMessageCount = messageCount;
+                lastUpdate = now;
+            } else {
+                long elapsed = now - lastUpdate;
+                //if polled again straight away, keep the rate we have rather than divide by (nearly) nothing
+                if (elapsed >= TimeUnit.MILLISECONDS.toNanos(100)) {
+                    messagesPerSecond = (double) (messageCount - lastMessageCount) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+                    lastMessageCount = messageCount;
+                    lastUpdate = now;
+                }
+            }
+
+            double current = calculateLoad(brokerOverview, messagesPerSecond);
+            if (load < 0 || smoothing >= 1 || smoothing <= 0) {
+                load = current;
+            } else {
+                load += smoothing * (current - load);
+            }
+            return (int) Math.round(load);
+        }
+    }
+}
@@ -25,14 +25,16 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Reference counts the statistics for each destination used by a client connection. Nothing here
+ * takes a lock: the references are counted with CAS, and registering the statistics with JMX is
+ * done asynchronously by the {@link Model}.
+ */
 public class DestinationRegister {
     private final Model model;
     private final MultiplexerInput multiplexerInput;
     private final ConcurrentMap<ActiveMQDestination, DestinationStatisticsReference> map = new ConcurrentHashMap<>();
-    private final Lock lock = new ReentrantLock();
 
     DestinationRegister(Model model, MultiplexerInput multiplexerInput) {
         this.model = model;
@@ -103,48 +105,46 @@ public class DestinationRegister {
     }
 
     private DestinationStatistics register(ActiveMQDestination destination) {
-        DestinationStatistics destinationStatistics = null;
-        if (destination != null) {
-            lock.lock();
-            try {
-                DestinationStatisticsReference destinationStatisticsReference = map.get(destination);
-                if (destinationStatisticsReference == null) {
-                    destinationStatistics = new DestinationStatistics(multiplexerInput.getName(), destination);
-                    destinationStatisticsReference = new DestinationStatisticsReference(destinationStatistics);
-                    map.put(destination, destinationStatisticsReference);
+        if (destination == null) {
+            return null;
+        }
+        while (true) {
+            DestinationStatisticsReference destinationStatisticsReference = map.get(destination);
+            if (destinationStatisticsReference == null) {
+                DestinationStatistics destinationStatistics = new DestinationStatistics(multiplexerInput.getName(), destination);
+                destinationStatisticsReference = new DestinationStatisticsReference(destinationStatistics);
+                DestinationStatisticsReference existing = map.putIfAbsent(destination, destinationStatisticsReference);
+                if (existing == null) {
                     model.register(multiplexerInput, destinationStatistics);
-                } else {
-                    destinationStatisticsReference.register();
+                    return destinationStatistics;
                 }
-            } finally {
-                lock.unlock();
+                destinationStatisticsReference = existing;
+            }
+            if (destinationStatisticsReference.register()) {
+                return destinationStatisticsReference.get();
             }
+            //lost a race with the last unregister - make sure it's gone, and start again
+            map.remove(destination, destinationStatisticsReference);
         }
-        return destinationStatistics;
     }
 
     private DestinationStatistics unregister(ActiveMQDestination destination) {
-        DestinationStatistics destinationStatisticsImpl = null;
+        DestinationStatistics destinationStatistics = null;
         if (destination != null) {
-            lock.lock();
-            try {
-                DestinationStatisticsReference destinationStatisticsReference = map.get(destination);
-                if (destinationStatisticsReference != null) {
-                    if (destinationStatisticsReference.unregister()) {
-                        map.remove(destination);
-                        model.unregister(multiplexerInput, destinationStatisticsReference.get());
-                    } else {
-                        destinationStatisticsImpl = destinationStatisticsReference.get();
-                    }
+            DestinationStatisticsReference destinationStatisticsReference = map.get(destination);
+            if (destinationStatisticsReference != null) {
+                if (destinationStatisticsReference.unregister()) {
+                    map.remove(destination, destinationStatisticsReference);
+                    model.unregister(multiplexerInput, destinationStatisticsReference.get());
+                } else {
+                    destinationStatistics = destinationStatisticsReference.get();
                 }
-            } finally {
-                lock.unlock();
             }
         }
-        return destinationStatisticsImpl;
+        return destinationStatistics;
     }
 
-    private class DestinationStatisticsReference {
+    private static class DestinationStatisticsReference {
         private final DestinationStatistics destinationStatistics;
         private final AtomicInteger count;
 
@@ -153,9 +153,19 @@ public class DestinationRegister {
             this.count = new AtomicInteger(1);
         }
 
-        DestinationStatisticsMBean register() {
-            count.incrementAndGet();
-            return destinationStatistics;
+        /**
+         * @return false if the count has already dropped to zero - it can't be brought back
+         */
+        boolean register() {
+            while (true) {
+                int current = count.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
         }
 
         DestinationStatistics get() {
@@ -163,7 +173,7 @@ public class DestinationRegister {
         }
 
         boolean unregister() {
-            return count.decrementAndGet() <= 0;
+            return count.decrementAndGet() == 0;
         }
     }
 }
@@ -14,11 +14,17 @@
  */
 package io.fabric8.mq.controller.multiplexer;
 
+import com.codahale.metrics.Meter;
 import io.fabric8.mq.controller.AsyncExecutors;
 import io.fabric8.mq.controller.MessageDistribution;
 import io.fabric8.mq.controller.TransportChangedListener;
+import io.fabric8.mq.controller.coordination.brokers.BrokerQuiescedException;
 import io.fabric8.mq.controller.model.Model;
 import io.fabric8.mq.controller.model.Multiplex;
+import io.fabric8.mq.controller.protocol.ProtocolTransport;
+import io.fabric8.mq.controller.util.ConcurrentLongHashMap;
+import io.fabric8.mq.controller.util.LazyMeter;
+import io.fabric8.mq.controller.util.RequestTimeoutException;
 import io.fabric8.mq.controller.util.TransportConnectionState;
 import io.fabric8.mq.controller.util.TransportConnectionStateRegister;
 import org.apache.activemq.command.*;
@@ -34,26 +40,40 @@ import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.impl.ConcurrentHashSet;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class Multiplexer extends ServiceSupport implements Multiplex, TransportChangedListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(Multiplexer.class);
+    public static final int DEFAULT_MAX_PENDING_COMMANDS = 10000;
+    public static final String OVERFLOW_BACKPRESSURE = "backpressure";
+    public static final String OVERFLOW_REJECT = "reject";
+    public static final int DEFAULT_REPLAY_BATCH_SIZE = 500;
+    public static final long DEFAULT_QUIESCED_HOLD_TIMEOUT = 60000;
+    //how often commands held for a quiesced broker are tried again
+    private static final long QUIESCED_RETRY_INTERVAL = 100;
     private final String name;
     private final AsyncExecutors asyncExecutors;
     private final MessageDistribution messageDistribution;
     private final TransportConnectionStateRegister transportConnectionStateRegister;
     private final Map<Transport, MultiplexerInput> inputs;
-    private final Map<ConsumerId, MultiplexerInput> consumerIdMultiplexerInputMap;
+    //keyed by the value of the multiplexer generated ConsumerId - looked up for every dispatch
+    private final ConcurrentLongHashMap<MultiplexerInput> consumerIdMultiplexerInputMap;
+    private final ConcurrentMap<MultiplexerInput, Set<ConsumerId>> multiplexerInputConsumerIdMap;
+    //with dispatch threads, each input has its own lane - so one slow client can only hold up itself
+    private final ConcurrentMap<MultiplexerInput, OrderedDispatcher.Lane> dispatchLanes;
     private final IdGenerator inputId;
     private final ConnectionInfo multiplexerConnectionInfo;
     private final SessionInfo multiplexerSessionInfo; //for advisories
@@ -62,7 +82,20 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
     private final AtomicLong consumerIdGenerator;
     private final AtomicLong transactionIdGenerator;
     private final AtomicLong inputCount;
-    private final AtomicReference<CountDownLatch> attachedToBroker;
+    private final Meter inboundMessages;
+    private final ArrayDeque<PendingCommand> pendingCommands;
+    private final Set<MultiplexerInput> suspendedInputs;
+    private final AtomicInteger replaysInProgress;
+    private volatile boolean attached;
+    private int maxPendingCommands = DEFAULT_MAX_PENDING_COMMANDS;
+    private int replayBatchSize = DEFAULT_REPLAY_BATCH_SIZE;
+    private int dispatchThreads;
+    private long quiescedHoldTimeout = DEFAULT_QUIESCED_HOLD_TIMEOUT;
+    //guarded by pendingCommands
+    private long quiescedSince;
+    private boolean quiescedRetryScheduled;
+    private volatile OrderedDispatcher dispatcher;
+    private boolean rejectOnOverflow;
     private Model model;
     private String userName;
     private String password;
@@ -74,7 +107,9 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
         this.messageDistribution = messageDistribution;
         this.transportConnectionStateRegister = new TransportConnectionStateRegister();
         inputs = new ConcurrentHashMap<>();
-        consumerIdMultiplexerInputMap = new ConcurrentHashMap<>();
+        consumerIdMultiplexerInputMap = new ConcurrentLongHashMap<>();
+        multiplexerInputConsumerIdMap = new ConcurrentHashMap<>();
+        dispatchLanes = new ConcurrentHashMap<>();
         inputId = new IdGenerator("InTransport");
         multiplexerConnectionInfo = new ConnectionInfo(new ConnectionId(inputId.generateSanitizedId()));
         multiplexerSessionInfo = new SessionInfo(multiplexerConnectionInfo, -1);
@@ -85,7 +120,10 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
         inputCount = new AtomicLong();
         userName = "";
         password = "";
-        attachedToBroker = new AtomicReference<>(new CountDownLatch(1));
+        inboundMessages = new LazyMeter();
+        pendingCommands = new ArrayDeque<>();
+        suspendedInputs = new HashSet<>();
+        replaysInProgress = new AtomicInteger();
     }
 
     public Model getModel() {
@@ -153,6 +191,80 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
         return multiplexerSessionInfo;
     }
 
+    public int getMaxPendingCommands() {
+        return maxPendingCommands;
+    }
+
+    /**
+     * The number of client commands held while there is no broker to send them to
+     */
+    public void setMaxPendingCommands(int maxPendingCommands) {
+        this.maxPendingCommands = maxPendingCommands;
+    }
+
+    public long getQuiescedHoldTimeout() {
+        return quiescedHoldTimeout;
+    }
+
+    /**
+     * @param quiescedHoldTimeout milliseconds commands are held while a broker they are for is quiesced (e.g.
+     *                            destinations are being moved on or off it), before they are rejected - zero holds
+     *                            them for ever
+     */
+    public void setQuiescedHoldTimeout(long quiescedHoldTimeout) {
+        this.quiescedHoldTimeout = quiescedHoldTimeout;
+    }
+
+    public String getPendingOverflowPolicy() {
+        return rejectOnOverflow ? OVERFLOW_REJECT : OVERFLOW_BACKPRESSURE;
+    }
+
+    /**
+     * What to do when the pending commands are full: {@link #OVERFLOW_BACKPRESSURE} stops reading from
+     * the client until there is a broker, {@link #OVERFLOW_REJECT} fails the command
+     */
+    public void setPendingOverflowPolicy(String policy) {
+        this.rejectOnOverflow = OVERFLOW_REJECT.equalsIgnoreCase(policy);
+    }
+
+    public int getReplayBatchSize() {
+        return replayBatchSize;
+    }
+
+    /**
+     * The number of connection state commands sent to a new broker before waiting for it to catch up
+     */
+    public void setReplayBatchSize(int replayBatchSize) {
+        this.replayBatchSize = Math.max(1, replayBatchSize);
+    }
+
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    /**
+     * The number of threads used to send messages and responses from the brokers to the clients. Each client
+     * has its own queue, so it still gets them in order, and a slow client only holds up itself. Zero (the default) dispatches on the
+     * thread reading from the broker - so one slow client holds up every other client of the broker connection.
+     */
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public boolean isReplayingState() {
+        return replaysInProgress.get() > 0;
+    }
+
+    public int getPendingCommandCount() {
+        synchronized (pendingCommands) {
+            return pendingCommands.size();
+        }
+    }
+
+    public boolean isAttached() {
+        return attached;
+    }
+
     public void addInput(String protocol, Transport transport) throws Exception {
         if (transport != null && !isStopping() && !isStopped()) {
             String name = getName() + ".input." + inputCount.getAndIncrement();
@@ -165,16 +277,14 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
     public void removeInput(MultiplexerInput multiplexerInput) {
         if (multiplexerInput != null) {
             if (inputs.remove(multiplexerInput.getInput()) != null) {
-
-                List<ConsumerId> removeList = new ArrayList<>();
-                for (Map.Entry<ConsumerId, MultiplexerInput> keyEntry : consumerIdMultiplexerInputMap.entrySet()) {
-                    if (keyEntry.getValue().equals(multiplexerInput)) {
-                        removeList.add(keyEntry.getKey());
+                dispatchLanes.remove(multiplexerInput);
+                //only touch the consumers of this input
+                Set<ConsumerId> consumerIds = multiplexerInputConsumerIdMap.remove(multiplexerInput);
+                if (consumerIds != null) {
+                    for (ConsumerId consumerId : consumerIds) {
+                        consumerIdMultiplexerInputMap.remove(consumerId.getValue(), multiplexerInput);
                     }
                 }
-                for (ConsumerId consumerId : removeList) {
-                    consumerIdMultiplexerInputMap.remove(consumerId);
-                }
             }
         }
     }
@@ -183,122 +293,163 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
         return inputs.size();
     }
 
+    /**
+     * @return the one minute rate of messages sent by the clients of this multiplexer
+     */
+    public double getInboundMessageRate() {
+        return inboundMessages.getOneMinuteRate();
+    }
+
     public void removeInput(Transport transport) {
         MultiplexerInput multiplexerInput = inputs.get(transport);
         removeInput(multiplexerInput);
     }
 
     public void sendOutAll(final MultiplexerInput input, final Command command) {
-        waitForBroker();
-        if (command != null) {
-            try {
-                if (command.isResponseRequired()) {
-                    final int commandId = command.getCommandId();
+        if (command != null && (attached || !addPending(input, null, command))) {
+            if (!doSendOutAll(input, command)) {
+                holdWhileQuiesced(new PendingCommand(input, null, command), false);
+            }
+        }
+    }
 
-                    messageDistribution.asyncSendAll(command, new ResponseCallback() {
-                        @Override
-                        public void onCompletion(FutureResponse futureResponse) {
-                            try {
-                                Response response = futureResponse.getResult();
-                                process(input, commandId, response);
-                            } catch (Throwable e) {
-                                e.printStackTrace();
-                                onFailure(e);
-                            }
+    /**
+     * @return false if a broker is quiesced - nothing has been sent, and the command should be held
+     */
+    private boolean doSendOutAll(final MultiplexerInput input, final Command command) {
+        try {
+            if (command.isResponseRequired()) {
+                final int commandId = command.getCommandId();
+
+                messageDistribution.asyncSendAll(command, new ResponseCallback() {
+                    @Override
+                    public void onCompletion(FutureResponse futureResponse) {
+                        try {
+                            Response response = futureResponse.getResult();
+                            process(input, commandId, response);
+                        } catch (Throwable e) {
+                            e.printStackTrace();
+                            onFailure(e);
                         }
-                    });
-                } else {
-                    messageDistribution.sendAll(command);
-                }
-            } catch (Throwable e) {
-                e.printStackTrace();
-                onFailure(e);
+                    }
+                });
+            } else {
+                messageDistribution.sendAll(command);
             }
+        } catch (BrokerQuiescedException e) {
+            return false;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            onFailure(e);
         }
+        return true;
     }
 
     public void sendOut(final MultiplexerInput input, ActiveMQDestination destination, Command command) {
-        waitForBroker();
         if (command != null) {
-            try {
-                if (command.isResponseRequired()) {
-                    final int commandId = command.getCommandId();
+            if (command.isMessage()) {
+                inboundMessages.mark();
+            }
+            if (attached || !addPending(input, destination, command)) {
+                if (!doSendOut(input, destination, command)) {
+                    holdWhileQuiesced(new PendingCommand(input, destination, command), false);
+                }
+            }
+        }
+    }
 
-                    messageDistribution.asyncSend(destination, command, new ResponseCallback() {
-                        @Override
-                        public void onCompletion(FutureResponse futureResponse) {
-                            try {
-                                Response response = futureResponse.getResult();
-                                process(input, commandId, response);
-                            } catch (Throwable e) {
-                                onFailure(e);
-                            }
+    /**
+     * @return false if the broker is quiesced - nothing has been sent, and the command should be held
+     */
+    private boolean doSendOut(final MultiplexerInput input, ActiveMQDestination destination, Command command) {
+        try {
+            if (command.isResponseRequired()) {
+                final int commandId = command.getCommandId();
+
+                messageDistribution.asyncSend(destination, command, new ResponseCallback() {
+                    @Override
+                    public void onCompletion(FutureResponse futureResponse) {
+                        try {
+                            Response response = futureResponse.getResult();
+                            process(input, commandId, response);
+                        } catch (Throwable e) {
+                            onFailure(e);
                         }
-                    });
-                } else {
-                    messageDistribution.send(destination, command);
-                }
-            } catch (Throwable e) {
-                onFailure(e);
+                    }
+                });
+            } else {
+                messageDistribution.send(destination, command);
             }
+        } catch (BrokerQuiescedException e) {
+            return false;
+        } catch (Throwable e) {
+            onFailure(e);
         }
+        return true;
     }
 
     public void registerConsumer(ConsumerId consumerId, MultiplexerInput input) {
-        consumerIdMultiplexerInputMap.put(consumerId, input);
+        Set<ConsumerId> consumerIds = multiplexerInputConsumerIdMap.get(input);
+        if (consumerIds == null) {
+            Set<ConsumerId> newConsumerIds = new ConcurrentHashSet<>();
+            consumerIds = multiplexerInputConsumerIdMap.putIfAbsent(input, newConsumerIds);
+            if (consumerIds == null) {
+                consumerIds = newConsumerIds;
+            }
+        }
+        consumerIds.add(consumerId);
+        consumerIdMultiplexerInputMap.put(consumerId.getValue(), input);
     }
 
     public void unregisterConsumer(ConsumerId consumerId) {
-        consumerIdMultiplexerInputMap.remove(consumerId);
+        MultiplexerInput input = consumerId != null ? consumerIdMultiplexerInputMap.remove(consumerId.getValue()) : null;
+        if (input != null) {
+            Set<ConsumerId> consumerIds = multiplexerInputConsumerIdMap.get(input);
+            if (consumerIds != null) {
+                consumerIds.remove(consumerId);
+            }
+        }
     }
 
+    /**
+     * Replay the state of all our clients to a new broker. This is called on the thread that created the
+     * broker transport, so the replay itself is done asynchronously, a batch at a time - new client commands
+     * are held until it has finished, so they can't overtake the state they depend on.
+     */
     @Override
     public void transportCreated(String brokerId, Transport transport) {
         if (isStarted()) {
-            try {
-                for (TransportConnectionState transportConnectionState : transportConnectionStateRegister.listConnectionStates()) {
-
-                    ConnectionInfo connectionInfo = transportConnectionState.getInfo();
-                    transport.oneway(connectionInfo);
-
-                    int sessionCount = transportConnectionState.getSessionStates().size();
-                    int consumerCount = 0;
-                    int producerCount = 0;
-                    for (SessionState sessionState : transportConnectionState.getSessionStates()) {
-                        SessionInfo sessionInfo = sessionState.getInfo();
-                        transport.oneway(sessionInfo);
-                        consumerCount = sessionState.getConsumerStates().size();
-                        for (ConsumerState consumerState : sessionState.getConsumerStates()) {
-                            ConsumerInfo consumerInfo = consumerState.getInfo();
-                            transport.oneway(consumerInfo);
-                        }
-                        producerCount = sessionState.getProducerStates().size();
-                        for (ProducerState producerState : sessionState.getProducerStates()) {
-                            ProducerInfo producerInfo = producerState.getInfo();
-                            transport.oneway(producerInfo);
-                        }
-                    }
-                    LOG.info("Sent to " + transport + " Connection Info " + connectionInfo.getClientId() + " [ sessions = " + sessionCount + ",consumers = " + consumerCount + ",producers=" + producerCount + "]");
-                }
-            } catch (Throwable e) {
-                LOG.error("Failed to update connection state ", e);
+            replaysInProgress.incrementAndGet();
+            synchronized (pendingCommands) {
+                attached = false;
             }
+            final StateReplay stateReplay = new StateReplay(brokerId, transport);
+            doAsyncProcess(new Runnable() {
+                @Override
+                public void run() {
+                    stateReplay.sendNextBatch();
+                }
+            });
+        } else {
+            replayPending();
         }
-        CountDownLatch countDownLatch = attachedToBroker.get();
-        countDownLatch.countDown();
-
     }
 
     @Override
     public void transportDestroyed(String brokerId) {
         if (messageDistribution.getCurrentConnectedBrokerCount() == 0) {
-            attachedToBroker.set(new CountDownLatch(1));
+            attached = false;
         }
     }
 
     @Override
     protected void doStart() throws Exception {
 
+        if (dispatchThreads > 0) {
+            OrderedDispatcher orderedDispatcher = new OrderedDispatcher(getName(), dispatchThreads, OrderedDispatcher.DEFAULT_QUEUE_SIZE);
+            orderedDispatcher.start();
+            dispatcher = orderedDispatcher;
+        }
         messageDistribution.setTransportListener(new DefaultTransportListener() {
             @Override
             public void onCommand(Object o) {
@@ -328,8 +479,7 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
         if (messageDistribution.getCurrentConnectedBrokerCount() > 0) {
             messageDistribution.sendAll(multiplexerConnectionInfo);
             messageDistribution.sendAll(multiplexerSessionInfo);
-            CountDownLatch countDownLatch = attachedToBroker.get();
-            countDownLatch.countDown();
+            replayPending();
         }
         model.add(this);
     }
@@ -345,6 +495,13 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
             serviceStopper.stop(messageDistribution);
         } catch (Throwable ignored) {
         }
+        OrderedDispatcher orderedDispatcher = dispatcher;
+        if (orderedDispatcher != null) {
+            dispatcher = null;
+            serviceStopper.stop(orderedDispatcher);
+            dispatchLanes.clear();
+        }
+        failPending(new IOException("Multiplexer " + getName() + " stopped"));
         model.remove(this);
     }
 
@@ -355,9 +512,9 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
         } else if (command.isMessageDispatch()) {
             MessageDispatch messageDispatch = (MessageDispatch) command;
             ConsumerId consumerId = messageDispatch.getConsumerId();
-            MultiplexerInput input = consumerIdMultiplexerInputMap.get(consumerId);
+            MultiplexerInput input = consumerId != null ? consumerIdMultiplexerInputMap.get(consumerId.getValue()) : null;
             if (input != null) {
-                input.oneway(messageDispatch);
+                deliver(input, messageDispatch);
             } else {
                 LOG.debug("Couldn't find MultiplexerInput for consumerId:" + consumerId);
             }
@@ -388,25 +545,361 @@ public class Multiplexer extends ServiceSupport implements Multiplex, TransportC
 
         if (response.isException()) {
             ExceptionResponse er = (ExceptionResponse) response;
-            onFailure(er.getException());
+            if (er.getException() instanceof RequestTimeoutException) {
+                //the broker may still be working on it - so only fail this request
+                LOG.warn(er.getException().getMessage());
+                response.setCorrelationId(realCorrelationId);
+                deliver(input, response);
+            } else {
+                onFailure(er.getException());
+            }
         } else {
-            Response copy = new Response();
-            response.copy(copy);
-            copy.setCorrelationId(realCorrelationId);
-            input.oneway(copy);
+            //the response was unmarshalled from the broker for this request alone - so no need to copy it
+            response.setCorrelationId(realCorrelationId);
+            deliver(input, response);
         }
     }
 
-    private void waitForBroker() {
-        CountDownLatch countDownLatch = attachedToBroker.get();
-        try {
-            while (!isStopping()) {
-                if (countDownLatch.await(100, TimeUnit.MILLISECONDS)) {
+    /**
+     * Send a command from the broker to a client. With dispatch threads, every command for the same client
+     * goes through that client's lane - so a response can't overtake the messages dispatched before it, and
+     * the thread reading from the broker never waits for a client. A client that falls so far behind that its
+     * lane fills up is closed, rather than holding up every other client of the broker connection.
+     */
+    private void deliver(MultiplexerInput input, Command command) {
+        OrderedDispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null) {
+            try {
+                OrderedDispatcher.Lane lane = getDispatchLane(dispatcher, input);
+                if (!dispatcher.dispatch(lane, new DispatchTask(input, command))) {
+                    input.onFailure(new IOException("Closing slow client " + input.getName() + ": "
+                                                        + lane.getQueuedCount() + " commands are already queued for it"));
+                }
+            } catch (Throwable e) {
+                input.onFailure(e);
+            }
+        } else {
+            new DispatchTask(input, command).run();
+        }
+    }
+
+    private OrderedDispatcher.Lane getDispatchLane(OrderedDispatcher dispatcher, MultiplexerInput input) {
+        OrderedDispatcher.Lane lane = dispatchLanes.get(input);
+        if (lane == null) {
+            final Transport transport = input.getInput();
+            if (transport instanceof ProtocolTransport) {
+                //writing to a client over its high watermark would block the worker until the client caught up
+                lane = dispatcher.createLane(input.getName(), new OrderedDispatcher.Gate() {
+                    @Override
+                    public boolean isClosed() {
+                        return ((ProtocolTransport) transport).isOutboundQueueFull();
+                    }
+                });
+            } else {
+                lane = dispatcher.createLane(input.getName());
+            }
+            OrderedDispatcher.Lane existing = dispatchLanes.putIfAbsent(input, lane);
+            if (existing != null) {
+                lane = existing;
+            }
+        }
+        return lane;
+    }
+
+    /**
+     * Hold a command from a client until we are attached to a broker - called on the thread that delivered
+     * the command (usually an event loop), so it never blocks
+     *
+     * @return false if we attached in the meantime, and the command should be sent straight away
+     */
+    private boolean addPending(MultiplexerInput input, ActiveMQDestination destination, Command command) {
+        boolean reject = false;
+        boolean suspend = false;
+        synchronized (pendingCommands) {
+            if (attached) {
+                return false;
+            }
+            if (pendingCommands.size() >= maxPendingCommands) {
+                if (rejectOnOverflow || isStopping() || isStopped()) {
+                    reject = true;
+                } else {
+                    //commands already read from the client are still held - but no more will be read
+                    suspend = suspendedInputs.add(input);
+                }
+            }
+            if (!reject) {
+                pendingCommands.add(new PendingCommand(input, destination, command));
+            }
+        }
+        if (reject) {
+            reject(input, command, new IOException("No broker available for " + getName() + ": " + maxPendingCommands + " commands are already pending"));
+        } else if (suspend) {
+            setInputSuspended(input, true);
+        }
+        return true;
+    }
+
+    /**
+     * Hold a command because the broker it's for is quiesced - called on the thread that sent it (usually an
+     * event loop), which must not wait for the broker to be resumed. Every command after it is held too, so
+     * nothing overtakes it, and the held commands are tried again shortly on another thread.
+     *
+     * @param first true if the command was already held, and goes back to the front
+     */
+    private void holdWhileQuiesced(PendingCommand pendingCommand, boolean first) {
+        boolean schedule;
+        synchronized (pendingCommands) {
+            attached = false;
+            if (first) {
+                pendingCommands.addFirst(pendingCommand);
+            } else {
+                pendingCommands.add(pendingCommand);
+            }
+            if (quiescedSince == 0) {
+                quiescedSince = System.currentTimeMillis();
+            }
+            schedule = !quiescedRetryScheduled;
+            quiescedRetryScheduled = true;
+        }
+        if (schedule) {
+            asyncExecutors.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    doAsyncProcess(new Runnable() {
+                        @Override
+                        public void run() {
+                            retryQuiesced();
+                        }
+                    });
+                }
+            }, QUIESCED_RETRY_INTERVAL);
+        }
+    }
+
+    private void retryQuiesced() {
+        long heldFor;
+        synchronized (pendingCommands) {
+            quiescedRetryScheduled = false;
+            heldFor = quiescedSince > 0 ? System.currentTimeMillis() - quiescedSince : 0;
+        }
+        if (!isStarted()) {
+            return;
+        }
+        long timeout = quiescedHoldTimeout;
+        if (timeout > 0 && heldFor > timeout) {
+            LOG.warn("Rejecting the commands held for " + heldFor + " ms by " + getName() + " while a broker was quiesced");
+            failPending(new IOException("Timed out after " + timeout + " ms waiting for a quiesced broker to be resumed"));
+        }
+        //without a broker, the held commands are replayed once one is attached
+        if (messageDistribution.getCurrentConnectedBrokerCount() > 0) {
+            replayPending();
+        }
+    }
+
+    /**
+     * Send everything held while there was no broker, in the order it arrived. New commands keep being
+     * held until we have caught up, so they can't overtake the pending ones.
+     */
+    private void replayPending() {
+        int count = 0;
+        while (true) {
+            PendingCommand pendingCommand;
+            synchronized (pendingCommands) {
+                if (replaysInProgress.get() > 0) {
+                    //carry on holding commands - we are called again once the state replay is done
                     break;
                 }
+                pendingCommand = pendingCommands.poll();
+                if (pendingCommand == null) {
+                    attached = true;
+                    quiescedSince = 0;
+                    break;
+                }
+            }
+            boolean sent;
+            if (pendingCommand.destination != null) {
+                sent = doSendOut(pendingCommand.input, pendingCommand.destination, pendingCommand.command);
+            } else {
+                sent = doSendOutAll(pendingCommand.input, pendingCommand.command);
+            }
+            if (!sent) {
+                //carry on holding everything until the broker has been resumed
+                holdWhileQuiesced(pendingCommand, true);
+                return;
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            count++;
+        }
+        if (count > 0) {
+            LOG.info("Sent " + count + " commands held while " + getName() + " was not attached to a broker");
+        }
+        resumeInputs();
+    }
+
+    private void stateReplayFinished() {
+        if (replaysInProgress.decrementAndGet() == 0 && isStarted() && messageDistribution.getCurrentConnectedBrokerCount() > 0) {
+            replayPending();
+        }
+    }
+
+    private void failPending(IOException reason) {
+        List<PendingCommand> failed;
+        synchronized (pendingCommands) {
+            failed = new ArrayList<>(pendingCommands);
+            pendingCommands.clear();
+        }
+        for (PendingCommand pendingCommand : failed) {
+            reject(pendingCommand.input, pendingCommand.command, reason);
+        }
+        resumeInputs();
+    }
+
+    private void resumeInputs() {
+        List<MultiplexerInput> resume;
+        synchronized (pendingCommands) {
+            resume = new ArrayList<>(suspendedInputs);
+            suspendedInputs.clear();
+        }
+        for (MultiplexerInput input : resume) {
+            setInputSuspended(input, false);
+        }
+    }
+
+    private void setInputSuspended(MultiplexerInput input, boolean suspended) {
+        Transport transport = input.getInput();
+        if (transport instanceof ProtocolTransport) {
+            ((ProtocolTransport) transport).setInputSuspended(suspended);
+        }
+    }
+
+    private void reject(MultiplexerInput input, Command command, IOException reason) {
+        if (command.isResponseRequired()) {
+            ExceptionResponse response = new ExceptionResponse(reason);
+            response.setCorrelationId(command.getCommandId());
+            deliver(input, response);
+        } else {
+            //the client isn't expecting a reply - so the only way to tell it is to drop the connection
+            LOG.warn("Closing " + input.getName() + ": " + reason.getMessage());
+            input.onFailure(reason);
+        }
+    }
+
+    /**
+     * Streams a snapshot of the connection state to one broker. Each batch is sent with oneway, followed by
+     * a barrier that the broker answers once it has processed the batch - so there is only ever one batch
+     * in flight, and no thread is blocked waiting for the broker.
+     */
+    private class StateReplay implements ResponseCallback {
+        private final String brokerId;
+        private final Transport transport;
+        private final List<Command> commands = new ArrayList<>();
+        private final long startTime = System.currentTimeMillis();
+        private int connectionCount;
+        private int sessionCount;
+        private int consumerCount;
+        private int producerCount;
+        private int index;
+
+        StateReplay(String brokerId, Transport transport) {
+            this.brokerId = brokerId;
+            this.transport = transport;
+            for (TransportConnectionState transportConnectionState : transportConnectionStateRegister.listConnectionStates()) {
+                commands.add(transportConnectionState.getInfo());
+                connectionCount++;
+                for (SessionState sessionState : transportConnectionState.getSessionStates()) {
+                    commands.add(sessionState.getInfo());
+                    sessionCount++;
+                    for (ConsumerState consumerState : sessionState.getConsumerStates()) {
+                        commands.add(consumerState.getInfo());
+                        consumerCount++;
+                    }
+                    for (ProducerState producerState : sessionState.getProducerStates()) {
+                        commands.add(producerState.getInfo());
+                        producerCount++;
+                    }
+                }
+            }
+        }
+
+        void sendNextBatch() {
+            try {
+                if (index < commands.size() && !isStopping() && !isStopped()) {
+                    int end = Math.min(index + replayBatchSize, commands.size());
+                    while (index < end) {
+                        transport.oneway(commands.get(index++));
+                    }
+                    //the infos are shared with other replays - so don't ask for a response to one of them
+                    transport.asyncRequest(new ControlCommand(), this);
+                } else {
+                    finished(null);
+                }
+            } catch (Throwable e) {
+                finished(e);
+            }
+        }
+
+        @Override
+        public void onCompletion(FutureResponse futureResponse) {
+            try {
+                Response response = futureResponse.getResult();
+                if (response.isException()) {
+                    throw ((ExceptionResponse) response).getException();
+                }
+            } catch (Throwable e) {
+                finished(e);
+                return;
+            }
+            doAsyncProcess(new Runnable() {
+                @Override
+                public void run() {
+                    sendNextBatch();
+                }
+            });
+        }
+
+        private void finished(Throwable error) {
+            if (error != null) {
+                LOG.error("Failed to update connection state for broker " + brokerId + " after " + index + " of " + commands.size() + " commands", error);
+            } else {
+                LOG.info("Sent to " + transport + " connection state [ connections = " + connectionCount + ",sessions = " + sessionCount + ",consumers = " + consumerCount
+                             + ",producers = " + producerCount + "] in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+            stateReplayFinished();
+        }
+    }
+
+    private static class DispatchTask implements Runnable {
+        private final MultiplexerInput input;
+        private final Command command;
+
+        DispatchTask(MultiplexerInput input, Command command) {
+            this.input = input;
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (command.isMessageDispatch()) {
+                    input.oneway((MessageDispatch) command);
+                } else {
+                    input.oneway((Object) command);
+                }
+            } catch (Throwable e) {
+                //only this client has a problem - the other clients of the broker connection carry on
+                input.onFailure(e);
+            }
+        }
+    }
+
+    private static class PendingCommand {
+        private final MultiplexerInput input;
+        private final ActiveMQDestination destination;
+        private final Command command;
+
+        PendingCommand(MultiplexerInput input, ActiveMQDestination destination, Command command) {
+            this.input = input;
+            this.destination = destination;
+            this.command = command;
         }
     }
 
@@ -17,6 +17,7 @@ package io.fabric8.mq.controller.multiplexer;
 
 import io.fabric8.mq.controller.AsyncExecutors;
 import io.fabric8.mq.controller.BrokerStateInfo;
+import io.fabric8.mq.controller.MQControllerStatus;
 import io.fabric8.mq.controller.model.BrokerControl;
 import io.fabric8.mq.controller.model.Model;
 import io.fabric8.mq.controller.sharding.ShardedMessageDistribution;
@@ -26,12 +27,19 @@ import org.apache.activemq.util.ServiceSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Owns one or more {@link Multiplexer}s - each has its own connection to every broker, so the number of
+ * them (BROKER_CONNECTIONS_PER_MULTIPLEXER) is the number of physical broker connections this controller uses.
+ * <p>
+ * Client connections are striped across them by a hash of the connection. It's the whole client connection that
+ * is striped, rather than each consumer and producer, because a broker only knows about the sessions, consumers,
+ * producers and transactions that were created on the same broker connection.
+ */
 public class MultiplexerController extends ServiceSupport {
     private static final Logger LOG = LoggerFactory.getLogger(MultiplexerController.class);
     private final String name;
     private final BrokerStateInfo brokerStateInfo;
-    private final ShardedMessageDistribution shardedMessageDistribution;
-    private final Multiplexer multiplexer;
+    private final Multiplexer[] multiplexers;
 
     public MultiplexerController(String name, BrokerStateInfo brokerStateInfo) {
         this.name = name;
@@ -39,34 +47,84 @@ public class MultiplexerController extends ServiceSupport {
         Model model = brokerStateInfo.getModel();
         BrokerControl brokerControl = brokerStateInfo.getBrokerControl();
         AsyncExecutors asyncExecutors = brokerStateInfo.getAsyncExectutors();
+        MQControllerStatus controllerStatus = brokerStateInfo.getControllerStatus();
 
-        shardedMessageDistribution = new ShardedMessageDistribution(brokerControl);
-        multiplexer = new Multiplexer(model, getName() + ".multiplexer", asyncExecutors, shardedMessageDistribution);
+        int numberOfConnections = controllerStatus != null ? Math.max(1, controllerStatus.getBrokerConnectionsPerMultiplexer()) : 1;
+        multiplexers = new Multiplexer[numberOfConnections];
+        for (int i = 0; i < numberOfConnections; i++) {
+            ShardedMessageDistribution shardedMessageDistribution = new ShardedMessageDistribution(brokerControl);
+            String multiplexerName = getName() + ".multiplexer" + (numberOfConnections > 1 ? "." + i : "");
+            Multiplexer multiplexer = new Multiplexer(model, multiplexerName, asyncExecutors, shardedMessageDistribution);
+            if (controllerStatus != null) {
+                multiplexer.setMaxPendingCommands(controllerStatus.getMaxPendingCommands());
+                multiplexer.setPendingOverflowPolicy(controllerStatus.getPendingCommandsOverflow());
+                multiplexer.setReplayBatchSize(controllerStatus.getStateReplayBatchSize());
+                multiplexer.setDispatchThreads(controllerStatus.getDispatchThreads());
+                shardedMessageDistribution.setRequestTimeout(controllerStatus.getRequestTimeout());
+            }
+            multiplexer.setQuiescedHoldTimeout(brokerControl.getLeaseTimeout());
+            multiplexers[i] = multiplexer;
+        }
     }
 
     public String getName() {
         return name;
     }
 
+    public int getBrokerConnections() {
+        return multiplexers.length;
+    }
+
     public int getInputSize() {
-        return multiplexer.getInputSize();
+        int result = 0;
+        for (Multiplexer multiplexer : multiplexers) {
+            result += multiplexer.getInputSize();
+        }
+        return result;
+    }
+
+    public double getInboundMessageRate() {
+        double result = 0;
+        for (Multiplexer multiplexer : multiplexers) {
+            result += multiplexer.getInboundMessageRate();
+        }
+        return result;
     }
 
     public synchronized void addTransport(String protocol, Transport inbound) throws Exception {
-        multiplexer.addInput(protocol, inbound);
+        getMultiplexer(inbound).addInput(protocol, inbound);
     }
 
     public synchronized void removeTransport(Transport inbound) {
-        multiplexer.removeInput(inbound);
+        getMultiplexer(inbound).removeInput(inbound);
+    }
+
+    private Multiplexer getMultiplexer(Transport inbound) {
+        if (multiplexers.length == 1) {
+            return multiplexers[0];
+        }
+        int hash = System.identityHashCode(inbound);
+        //spread the bits - identity hash codes aren't evenly distributed in the low bits
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return multiplexers[(hash & Integer.MAX_VALUE) % multiplexers.length];
     }
 
     @Override
     protected void doStop(ServiceStopper serviceStopper) throws Exception {
-        serviceStopper.stop(multiplexer);
+        for (Multiplexer multiplexer : multiplexers) {
+            serviceStopper.stop(multiplexer);
+        }
     }
 
     @Override
     protected void doStart() throws Exception {
-        multiplexer.start();
+        for (Multiplexer multiplexer : multiplexers) {
+            multiplexer.start();
+        }
+        if (multiplexers.length > 1) {
+            LOG.info(getName() + " striping clients across " + multiplexers.length + " connections to each broker");
+        }
     }
 }
@@ -15,11 +15,14 @@
 
 package io.fabric8.mq.controller.multiplexer;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
 import io.fabric8.mq.controller.AsyncExecutors;
 import io.fabric8.mq.controller.model.DestinationStatisticsMBean;
 import io.fabric8.mq.controller.model.InboundConnection;
 import io.fabric8.mq.controller.model.Model;
-import io.fabric8.mq.controller.util.LRUCache;
+import io.fabric8.mq.controller.protocol.ProtocolTransport;
+import io.fabric8.mq.controller.util.ConcurrentLongHashMap;
 import io.fabric8.mq.controller.util.TransportConnectionStateRegister;
 import org.apache.activemq.advisory.AdvisorySupport;
 import org.apache.activemq.command.*;
@@ -38,10 +41,13 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class MultiplexerInput extends TransportSupport implements CommandVisitor, InboundConnection {
     private static Logger LOG = LoggerFactory.getLogger(MultiplexerInput.class);
+    private static final Counter OPEN_TRANSACTIONS = Model.METRIC_REGISTRY.counter(MetricRegistry.name(MultiplexerInput.class, "transactions", "open"));
+    static final int MAX_OPEN_TRANSACTIONS = 10000;
     private final Multiplexer multiplexer;
     private final Model model;
     private final String protocol;
@@ -51,11 +57,14 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
     private final ConnectionId multiplexerConnectionId;
     private final SessionId multiplexerSessionId;
     private final Transport input;
+    private final boolean ownsCommands;
     final private Map<SessionId, SessionId> sessionIdMap = new ConcurrentHashMap<>();
     final private Map<ProducerId, ProducerId> producerIdMap = new ConcurrentHashMap<>();
     final private Map<ConsumerId, ConsumerId> originalConsumerIdKeyMap = new ConcurrentHashMap<>();
-    final private Map<ConsumerId, ConsumerId> multiplexerConsumerIdKeyMap = new ConcurrentHashMap<>();
-    final private Map<TransactionId, TransactionId> transactionIdMap = new LRUCache<>(10000);
+    //keyed by the value of the multiplexer ConsumerId - looked up for every dispatch
+    final private ConcurrentLongHashMap<ConsumerId> multiplexerConsumerIdKeyMap = new ConcurrentLongHashMap<>();
+    //local transactions that are open - removed when they are committed, rolled back or forgotten
+    final private ConcurrentMap<TransactionId, TransactionId> transactionIdMap = new ConcurrentHashMap<>();
     final private DestinationRegister destinationRegister;
     private ConnectionInfo connectionInfo;
     private AtomicLong inboundMessageCount = new AtomicLong();
@@ -69,6 +78,12 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
         this.asyncExecutors = asyncExecutors;
         this.multiplexerConnectionStateRegister = transportConnectionStateRegister;
         this.input = input;
+        /*
+         * our own protocol transports unmarshal a new command for every frame, and nothing else holds on to it -
+         * so ids can be rewritten in place. Any other transport (e.g. the VM transport) may share the command
+         * with the client, so it has to be copied first
+         */
+        this.ownsCommands = input instanceof ProtocolTransport;
         this.multiplexerConnectionId = multiplexer.getMultiplexerConnectionInfo().getConnectionId();
         this.multiplexerSessionId = multiplexer.getMultiplexerSessionInfo().getSessionId();
         this.destinationRegister = new DestinationRegister(model, this);
@@ -109,6 +124,7 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
         multiplexerConsumerIdKeyMap.clear();
         sessionIdMap.clear();
         producerIdMap.clear();
+        OPEN_TRANSACTIONS.dec(transactionIdMap.size());
         transactionIdMap.clear();
         model.remove(this);
 
@@ -383,10 +399,11 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
         ProducerId newProducerId = producerIdMap.get(originalProducerId);
         if (newProducerId != null) {
             ActiveMQDestination destination = message.getDestination();
-            Message copy = message.copy();
-            copy.setProducerId(newProducerId);
-            copy.setTransactionId(getMultiplexTransactionId(message.getOriginalTransactionId()));
-            multiplexer.sendOut(this, destination, copy);
+            //avoid copying the message (and its properties) unless somebody else can see it
+            Message outbound = ownsCommands ? message : message.copy();
+            outbound.setProducerId(newProducerId);
+            outbound.setTransactionId(getMultiplexTransactionId(message.getOriginalTransactionId()));
+            multiplexer.sendOut(this, destination, outbound);
             destinationRegister.addMessageInbound(destination);
             inboundMessageCount.incrementAndGet();
         } else {
@@ -397,15 +414,18 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
 
     @Override
     public Response processMessageAck(MessageAck messageAck) throws Exception {
-        MessageAck copy = new MessageAck();
-        messageAck.copy(copy);
-        copy.setMessageCount(messageAck.getMessageCount());
-        copy.setTransactionId(getMultiplexTransactionId(messageAck.getTransactionId()));
+        MessageAck outbound = messageAck;
+        if (!ownsCommands) {
+            outbound = new MessageAck();
+            messageAck.copy(outbound);
+            outbound.setMessageCount(messageAck.getMessageCount());
+        }
+        outbound.setTransactionId(getMultiplexTransactionId(messageAck.getTransactionId()));
         ConsumerId consumerId = messageAck.getConsumerId();
         ConsumerId multiplexerConsumerId = getMultiplexConsumerId(consumerId);
         if (multiplexerConsumerId != null) {
-            copy.setConsumerId(multiplexerConsumerId);
-            multiplexer.sendOut(this, copy.getDestination(), copy);
+            outbound.setConsumerId(multiplexerConsumerId);
+            multiplexer.sendOut(this, outbound.getDestination(), outbound);
         }
 
         return null;
@@ -438,21 +458,21 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
 
     @Override
     public Response processCommitTransactionOnePhase(TransactionInfo transactionInfo) throws Exception {
-        transactionInfo.setTransactionId(getMultiplexTransactionId(transactionInfo.getTransactionId()));
+        transactionInfo.setTransactionId(getAndForgetMultiplexTransactionId(transactionInfo.getTransactionId()));
         multiplexer.sendOutAll(this, transactionInfo);
         return null;
     }
 
     @Override
     public Response processCommitTransactionTwoPhase(TransactionInfo transactionInfo) throws Exception {
-        transactionInfo.setTransactionId(getMultiplexTransactionId(transactionInfo.getTransactionId()));
+        transactionInfo.setTransactionId(getAndForgetMultiplexTransactionId(transactionInfo.getTransactionId()));
         multiplexer.sendOutAll(this, transactionInfo);
         return null;
     }
 
     @Override
     public Response processRollbackTransaction(TransactionInfo transactionInfo) throws Exception {
-        transactionInfo.setTransactionId(getMultiplexTransactionId(transactionInfo.getTransactionId()));
+        transactionInfo.setTransactionId(getAndForgetMultiplexTransactionId(transactionInfo.getTransactionId()));
         multiplexer.sendOutAll(this, transactionInfo);
         return null;
     }
@@ -556,15 +576,23 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
         return null;
     }
 
-    private TransactionId getMultiplexTransactionId(TransactionId originalId) {
+    public int getOpenTransactionCount() {
+        return transactionIdMap.size();
+    }
+
+    private TransactionId getMultiplexTransactionId(TransactionId originalId) throws IOException {
         TransactionId result = originalId;
         if (originalId != null && originalId.isLocalTransaction()) {
-            synchronized (transactionIdMap) {
-                result = transactionIdMap.get(originalId);
+            result = transactionIdMap.get(originalId);
+            if (result == null) {
+                if (transactionIdMap.size() >= MAX_OPEN_TRANSACTIONS) {
+                    throw new IOException(getName() + " has too many open transactions (" + MAX_OPEN_TRANSACTIONS + ")");
+                }
+                TransactionId multiplexerTransactionId = new LocalTransactionId(getMultiplexerConnectionId(), multiplexer.getNextTransactionId());
+                result = transactionIdMap.putIfAbsent(originalId, multiplexerTransactionId);
                 if (result == null) {
-                    long multiplexerTransactionId = multiplexer.getNextTransactionId();
-                    result = new LocalTransactionId(getMultiplexerConnectionId(), multiplexerTransactionId);
-                    transactionIdMap.put(originalId, result);
+                    result = multiplexerTransactionId;
+                    OPEN_TRANSACTIONS.inc();
                 }
             }
         }
@@ -574,11 +602,10 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
     private TransactionId getAndForgetMultiplexTransactionId(TransactionId originalId) {
         TransactionId result = originalId;
         if (originalId != null && originalId.isLocalTransaction()) {
-            synchronized (transactionIdMap) {
-                TransactionId value = transactionIdMap.remove(originalId);
-                if (value != null) {
-                    result = value;
-                }
+            TransactionId value = transactionIdMap.remove(originalId);
+            if (value != null) {
+                OPEN_TRANSACTIONS.dec();
+                result = value;
             }
         }
         return result;
@@ -586,19 +613,19 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
 
     private void storeConsumerId(ConsumerId original, ConsumerId multiplexer) {
         originalConsumerIdKeyMap.put(original, multiplexer);
-        multiplexerConsumerIdKeyMap.put(multiplexer, original);
+        multiplexerConsumerIdKeyMap.put(multiplexer.getValue(), original);
     }
 
     private ConsumerId removeByOriginal(ConsumerId original) {
-        ConsumerId multiplexerId = originalConsumerIdKeyMap.get(original);
+        ConsumerId multiplexerId = originalConsumerIdKeyMap.remove(original);
         if (multiplexerId != null) {
-            multiplexerConsumerIdKeyMap.remove(multiplexerId);
+            multiplexerConsumerIdKeyMap.remove(multiplexerId.getValue());
         }
         return multiplexerId;
     }
 
     private void removeByMultiplexerId(ConsumerId multiplexerId) {
-        ConsumerId originalId = multiplexerConsumerIdKeyMap.remove(multiplexerId);
+        ConsumerId originalId = multiplexerConsumerIdKeyMap.remove(multiplexerId.getValue());
         if (originalId != null) {
             originalConsumerIdKeyMap.remove(originalId);
         }
@@ -609,12 +636,12 @@ public class MultiplexerInput extends TransportSupport implements CommandVisitor
     }
 
     private ConsumerId getOriginalConsumerId(ConsumerId multiplex) {
-        return multiplexerConsumerIdKeyMap.get(multiplex);
+        return multiplex != null ? multiplexerConsumerIdKeyMap.get(multiplex.getValue()) : null;
     }
 
     private void removeSession(SessionId multiplexerDefinedSessionId) {
 
-        for (ConsumerId multiplexerConsumerId : multiplexerConsumerIdKeyMap.keySet()) {
+        for (ConsumerId multiplexerConsumerId : originalConsumerIdKeyMap.values()) {
             if (multiplexerConsumerId.getParentId().equals(multiplexerDefinedSessionId)) {
                 removeConsumer(multiplexerConsumerId);
             }
@@ -0,0 +1,34 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.multiplexer;
+
+import io.fabric8.mq.controller.util.ConnectionParameters;
+
+/**
+ * Chooses the {@link MultiplexerController} a new client connection is added to.
+ * Called concurrently from every event loop, so implementations must be thread safe and
+ * should not block.
+ */
+public interface MultiplexerSelectionStrategy {
+
+    /**
+     * @param candidates    the multiplexers to choose from - never empty, and must not be modified
+     * @param parameters    the parameters snooped from the client connection
+     * @param remoteHost    the host the client connected from
+     * @return one of the candidates
+     */
+    MultiplexerController select(MultiplexerController[] candidates, ConnectionParameters parameters, String remoteHost);
+}
@@ -0,0 +1,244 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.multiplexer;
+
+import org.apache.activemq.util.ServiceStopper;
+import org.apache.activemq.util.ServiceSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a fixed set of worker threads. Tasks are submitted to a {@link Lane} - tasks in the same
+ * lane are run in the order they were submitted, one at a time, while different lanes run in parallel.
+ * <p>
+ * A worker never waits on one lane: a lane whose {@link Gate} is closed (e.g. its client is over the
+ * high watermark) is parked, and only picked up again once the gate has opened - so a slow lane holds up
+ * nothing but itself. Each lane has its own bounded queue, and {@link #dispatch(Lane, Runnable)} never
+ * blocks: once a lane is full it returns false, and it's up to the caller to deal with that one lane.
+ * Once stopping, new tasks are refused with an IOException, and any still queued are dropped and logged.
+ */
+class OrderedDispatcher extends ServiceSupport {
+    private static final Logger LOG = LoggerFactory.getLogger(OrderedDispatcher.class);
+    static final int DEFAULT_QUEUE_SIZE = 1000;
+    //how many tasks a lane runs before giving the worker up to the other lanes
+    private static final int MAX_TASKS_PER_TURN = 64;
+    //how often parked lanes are checked to see if their gate has opened
+    private static final long PARK_CHECK_INTERVAL = 10;
+    private static final Gate ALWAYS_OPEN = new Gate() {
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    };
+    private final String name;
+    private final int queueSize;
+    private final Thread[] workers;
+    private final BlockingQueue<Lane> readyLanes = new LinkedBlockingQueue<>();
+    private final Queue<Lane> parkedLanes = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nextParkCheck = new AtomicLong();
+
+    OrderedDispatcher(String name, int numberOfThreads, int queueSize) {
+        this.name = name;
+        this.queueSize = Math.max(1, queueSize);
+        this.workers = new Thread[Math.max(1, numberOfThreads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(name + ".dispatch." + i);
+        }
+    }
+
+    public int getNumberOfThreads() {
+        return workers.length;
+    }
+
+    public Lane createLane(String laneName) {
+        return createLane(laneName, ALWAYS_OPEN);
+    }
+
+    public Lane createLane(String laneName, Gate gate) {
+        return new Lane(laneName, gate);
+    }
+
+    /**
+     * @return false if the lane already has as many tasks queued as it can hold - the task is not queued
+     */
+    public boolean dispatch(Lane lane, Runnable task) throws IOException {
+        if (isStopping() || isStopped()) {
+            throw new IOException(name + " is stopped");
+        }
+        if (lane.size.incrementAndGet() > queueSize) {
+            lane.size.decrementAndGet();
+            return false;
+        }
+        lane.tasks.offer(task);
+        if (lane.scheduled.compareAndSet(false, true)) {
+            readyLanes.offer(lane);
+        }
+        return true;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    protected void doStop(ServiceStopper serviceStopper) throws Exception {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        //every lane with tasks queued is either ready or parked
+        int dropped = 0;
+        Lane lane;
+        while ((lane = readyLanes.poll()) != null) {
+            dropped += lane.clear();
+        }
+        while ((lane = parkedLanes.poll()) != null) {
+            dropped += lane.clear();
+        }
+        if (dropped > 0) {
+            LOG.warn("Dropped " + dropped + " tasks still queued when " + name + " stopped");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Move the parked lanes whose gate has opened back to the ready queue - only one worker does this
+     * at a time, at most every {@link #PARK_CHECK_INTERVAL} ms
+     */
+    private void checkParkedLanes() {
+        long now = System.currentTimeMillis();
+        long next = nextParkCheck.get();
+        if (now < next || parkedLanes.isEmpty() || !nextParkCheck.compareAndSet(next, now + PARK_CHECK_INTERVAL)) {
+            return;
+        }
+        for (int i = parkedLanes.size(); i > 0; i--) {
+            Lane lane = parkedLanes.poll();
+            if (lane == null) {
+                break;
+            }
+            if (lane.gate.isClosed()) {
+                parkedLanes.offer(lane);
+            } else {
+                readyLanes.offer(lane);
+            }
+        }
+    }
+
+    /**
+     * Tells the dispatcher whether a lane can run its next task without blocking
+     */
+    interface Gate {
+        boolean isClosed();
+    }
+
+    class Lane {
+        private final String laneName;
+        private final Gate gate;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        //set while the lane is ready, parked or being run - so only one worker ever runs it
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Lane(String laneName, Gate gate) {
+            this.laneName = laneName;
+            this.gate = gate;
+        }
+
+        public int getQueuedCount() {
+            return size.get();
+        }
+
+        private void run() {
+            for (int count = 0; count < MAX_TASKS_PER_TURN; count++) {
+                if (gate.isClosed()) {
+                    parkedLanes.offer(this);
+                    return;
+                }
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    scheduled.set(false);
+                    //a task may have been added after the poll, but before the flag was cleared
+                    if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                size.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    LOG.warn("Dispatch task failed on " + this + ": " + e.getMessage(), e);
+                }
+            }
+            //give the other lanes a turn
+            readyLanes.offer(this);
+        }
+
+        private int clear() {
+            int count = 0;
+            while (tasks.poll() != null) {
+                size.decrementAndGet();
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return name + "." + laneName;
+        }
+    }
+
+    private class Worker extends Thread {
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isStopping() && !isStopped()) {
+                Lane lane;
+                try {
+                    lane = readyLanes.poll(PARK_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                checkParkedLanes();
+                if (lane != null) {
+                    lane.run();
+                }
+            }
+        }
+    }
+}
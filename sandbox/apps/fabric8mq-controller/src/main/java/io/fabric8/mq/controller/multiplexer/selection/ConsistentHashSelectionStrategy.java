@@ -0,0 +1,67 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.multiplexer.selection;
+
+import io.fabric8.mq.controller.multiplexer.MultiplexerController;
+import io.fabric8.mq.controller.multiplexer.MultiplexerSelectionStrategy;
+import io.fabric8.mq.controller.util.ConnectionParameters;
+
+/**
+ * Always picks the same multiplexer for the same client id (or virtual host, or client host if
+ * neither is known), using rendezvous hashing - so only the clients of a multiplexer that goes
+ * away are moved when the set of multiplexers changes.
+ */
+public class ConsistentHashSelectionStrategy implements MultiplexerSelectionStrategy {
+
+    @Override
+    public MultiplexerController select(MultiplexerController[] candidates, ConnectionParameters parameters, String remoteHost) {
+        String key = getKey(parameters, remoteHost);
+        MultiplexerController result = candidates[0];
+        long highest = Long.MIN_VALUE;
+        for (MultiplexerController candidate : candidates) {
+            long weight = mix(key.hashCode() * 31L + candidate.getName().hashCode());
+            if (weight > highest) {
+                highest = weight;
+                result = candidate;
+            }
+        }
+        return result;
+    }
+
+    private static String getKey(ConnectionParameters parameters, String remoteHost) {
+        if (parameters != null) {
+            if (parameters.protocolClientId != null && !parameters.protocolClientId.isEmpty()) {
+                return parameters.protocolClientId;
+            }
+            if (parameters.protocolVirtualHost != null && !parameters.protocolVirtualHost.isEmpty()) {
+                return parameters.protocolVirtualHost;
+            }
+        }
+        return remoteHost != null ? remoteHost : "";
+    }
+
+    /**
+     * 64 bit finalizer from MurmurHash3 - spreads similar keys evenly
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
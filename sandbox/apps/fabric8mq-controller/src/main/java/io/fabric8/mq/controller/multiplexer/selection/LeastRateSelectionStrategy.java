@@ -0,0 +1,50 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.multiplexer.selection;
+
+import io.fabric8.mq.controller.multiplexer.MultiplexerController;
+import io.fabric8.mq.controller.multiplexer.MultiplexerSelectionStrategy;
+import io.fabric8.mq.controller.util.ConnectionParameters;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the multiplexer with the lowest inbound message rate, so heavy clients don't cluster
+ * on the same broker connection. Falls back to the fewest client connections when the rates
+ * are equal (e.g. when nothing has been sent yet).
+ */
+public class LeastRateSelectionStrategy implements MultiplexerSelectionStrategy {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public MultiplexerController select(MultiplexerController[] candidates, ConnectionParameters parameters, String remoteHost) {
+        int start = RoundRobinSelectionStrategy.nextIndex(next, candidates.length);
+        MultiplexerController result = null;
+        double leastRate = Double.MAX_VALUE;
+        int leastInputs = Integer.MAX_VALUE;
+        for (int i = 0; i < candidates.length; i++) {
+            MultiplexerController candidate = candidates[(start + i) % candidates.length];
+            double rate = candidate.getInboundMessageRate();
+            int inputs = candidate.getInputSize();
+            if (rate < leastRate || (rate == leastRate && inputs < leastInputs)) {
+                leastRate = rate;
+                leastInputs = inputs;
+                result = candidate;
+            }
+        }
+        return result;
+    }
+}
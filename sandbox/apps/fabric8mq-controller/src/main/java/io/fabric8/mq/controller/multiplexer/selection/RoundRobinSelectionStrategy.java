@@ -0,0 +1,35 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.multiplexer.selection;
+
+import io.fabric8.mq.controller.multiplexer.MultiplexerController;
+import io.fabric8.mq.controller.multiplexer.MultiplexerSelectionStrategy;
+import io.fabric8.mq.controller.util.ConnectionParameters;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RoundRobinSelectionStrategy implements MultiplexerSelectionStrategy {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public MultiplexerController select(MultiplexerController[] candidates, ConnectionParameters parameters, String remoteHost) {
+        return candidates[nextIndex(next, candidates.length)];
+    }
+
+    static int nextIndex(AtomicInteger counter, int length) {
+        return (counter.getAndIncrement() & Integer.MAX_VALUE) % length;
+    }
+}
@@ -30,6 +30,11 @@ public interface ProtocolDetector {
 
     int getMaxIdentificationLength();
 
+    /**
+     * @return the leading bytes that identify the protocol - used to build the {@link ProtocolMatcher}
+     */
+    ProtocolSignature[] getSignatures();
+
     boolean matches(Buffer buffer);
 
     void snoopConnectionParameters(final SocketWrapper socket, Buffer received, Handler<ConnectionParameters> handler);
@@ -0,0 +1,146 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.protocol;
+
+import org.vertx.java.core.buffer.Buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classifies a connection from its first bytes, using a trie built once from the signatures
+ * of all the registered {@link ProtocolDetector}s. A single pass is made over the received
+ * bytes, without allocating, and as soon as no signature can match the connection can be rejected.
+ * If more than one protocol could match, the first one registered wins - so a later protocol isn't
+ * chosen while an earlier one still needs more bytes to decide.
+ */
+public class ProtocolMatcher {
+    public static final int NEED_MORE_DATA = -1;
+    public static final int NO_MATCH = -2;
+
+    private final List<ProtocolDetector> detectors;
+    private final Node root = new Node();
+
+    public ProtocolMatcher(List<ProtocolDetector> detectors) {
+        this.detectors = new ArrayList<>(detectors);
+        for (int i = 0; i < this.detectors.size(); i++) {
+            ProtocolSignature[] signatures = this.detectors.get(i).getSignatures();
+            if (signatures != null) {
+                for (ProtocolSignature signature : signatures) {
+                    add(signature, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index of the matching detector, {@link #NEED_MORE_DATA} or {@link #NO_MATCH}
+     */
+    public int classify(Buffer buffer) {
+        int result = match(root, buffer, 0, buffer.length());
+        return result >= 0 || result == NO_MATCH ? result : NEED_MORE_DATA;
+    }
+
+    public ProtocolDetector getDetector(int index) {
+        return detectors.get(index);
+    }
+
+    private void add(ProtocolSignature signature, int detectorIndex) {
+        Node node = root;
+        node.first = Math.min(node.first, detectorIndex);
+        for (int i = 0; i < signature.length(); i++) {
+            node = node.getOrAdd(signature.getSlot(i));
+            node.first = Math.min(node.first, detectorIndex);
+        }
+        if (node.detector < 0 || detectorIndex < node.detector) {
+            node.detector = detectorIndex;
+        }
+    }
+
+    /**
+     * @return the first detector still in the running below this node - its index if it matched,
+     * {@link #pending(int)} if it needs more bytes, or {@link #NO_MATCH}
+     */
+    private static int match(Node node, Buffer buffer, int offset, int length) {
+        int result = NO_MATCH;
+        if (node.detector >= 0) {
+            if (node.detector == node.first) {
+                //no earlier detector has a longer signature through here
+                return node.detector;
+            }
+            result = node.detector;
+        }
+        if (offset >= length) {
+            return node.size > 0 ? combine(result, pending(node.first)) : result;
+        }
+        byte value = buffer.getByte(offset);
+        for (int i = 0; i < node.size; i++) {
+            if (ProtocolSignature.contains(node.slots[i], value)) {
+                result = combine(result, match(node.children[i], buffer, offset + 1, length));
+            }
+        }
+        return result;
+    }
+
+    private static int combine(int a, int b) {
+        if (a == NO_MATCH) {
+            return b;
+        }
+        if (b == NO_MATCH) {
+            return a;
+        }
+        int detectorA = a >= 0 ? a : pending(a);
+        int detectorB = b >= 0 ? b : pending(b);
+        if (detectorA != detectorB) {
+            return detectorA < detectorB ? a : b;
+        }
+        //a detector that matched one signature doesn't need to wait for its others
+        return Math.max(a, b);
+    }
+
+    /**
+     * Encodes a detector that needs more bytes below {@link #NO_MATCH}, and decodes it again
+     */
+    private static int pending(int value) {
+        return NO_MATCH - 1 - value;
+    }
+
+    private static class Node {
+        private long[][] slots = new long[0][];
+        private Node[] children = new Node[0];
+        private int size;
+        private int detector = -1;
+        //the first detector with a signature through this node
+        private int first = Integer.MAX_VALUE;
+
+        Node getOrAdd(long[] slot) {
+            for (int i = 0; i < size; i++) {
+                if (ProtocolSignature.sameSlot(slots[i], slot)) {
+                    return children[i];
+                }
+            }
+            long[][] newSlots = new long[size + 1][];
+            Node[] newChildren = new Node[size + 1];
+            System.arraycopy(slots, 0, newSlots, 0, size);
+            System.arraycopy(children, 0, newChildren, 0, size);
+            newSlots[size] = slot;
+            newChildren[size] = new Node();
+            slots = newSlots;
+            children = newChildren;
+            return children[size++];
+        }
+    }
+}
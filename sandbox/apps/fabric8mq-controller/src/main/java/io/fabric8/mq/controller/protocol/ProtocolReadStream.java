@@ -0,0 +1,452 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.protocol;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.fabric8.mq.controller.model.Model;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.activemq.AsyncCallback;
+import org.apache.activemq.util.DataByteArrayOutputStream;
+import org.apache.activemq.util.ServiceStopper;
+import org.apache.activemq.util.ServiceSupport;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.streams.ReadStream;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The stream of frames from a {@link ProtocolTransport} to the client socket.
+ * <p>
+ * Any thread can send: frames are put on a multi-producer queue, and a single drain task
+ * running on the Vert.x context marshals them and hands them to the data handler. Only the
+ * thread that owns the drain (by setting the drain flag) ever marshals, so no locks are taken
+ * on the send path.
+ * <p>
+ * When write batching is enabled, the frames queued within one event loop tick (up to the
+ * maximum batch size) are marshalled into a single buffer - so a burst of small frames results
+ * in one socket write. The flush can also be delayed, to gather more frames - Vert.x timers have
+ * millisecond resolution, so any delay is rounded up to at least a millisecond.
+ * <p>
+ * The (estimated) size of queued frames is accounted for - threads that are not running on a
+ * Vert.x context will block in {@link #sendToVertx(Object, AsyncCallback)} whilst the high
+ * watermark is exceeded, until the queue falls back below the low watermark.
+ * <p>
+ * In pooled mode frames are marshalled into size-classed direct buffers from Netty's
+ * pooled allocator. The buffer is released back to the pool by the socket once it has
+ * been written - so this mode must only be used when the data handler writes to a NetSocket.
+ */
+public abstract class ProtocolReadStream<T> extends ServiceSupport implements ReadStream<T> {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64 * 1024;
+    protected static final int FRAME_OVERHEAD = 64;
+    private static final long DRAIN_WAIT_INTERVAL = 100L;
+    private static final int MIN_MARSHAL_BUFFER_SIZE = 256;
+    private static final Meter HEAP_BYTES_ALLOCATED = Model.METRIC_REGISTRY.meter(MetricRegistry.name(ProtocolTransport.class, "marshal", "heapBytesAllocated"));
+    private static final Meter POOLED_BUFFERS_ACQUIRED = Model.METRIC_REGISTRY.meter(MetricRegistry.name(ProtocolTransport.class, "marshal", "pooledBuffersAcquired"));
+
+    private final Vertx vertx;
+    private final DataByteArrayOutputStream dataOut;
+    private final Queue<Send> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final List<Send> batch = new ArrayList<>();
+    private final List<Send> single = new ArrayList<>(1);
+    private final ReentrantLock lock;
+    private final Condition drained;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicInteger waitingForDrain = new AtomicInteger();
+    private final Handler<Void> drainTask = new Handler<Void>() {
+        @Override
+        public void handle(Void aVoid) {
+            drain(true);
+        }
+    };
+    private final Handler<Long> flushTask = new Handler<Long>() {
+        @Override
+        public void handle(Long timerId) {
+            drain(false);
+        }
+    };
+    private volatile int maxQueueSize = ProtocolTransport.DEFAULT_WRITE_QUEUE_MAX_SIZE;
+    private volatile int maxBatchSize;
+    private volatile long maxBatchDelay;
+    private volatile ByteBufAllocator allocator;
+    private volatile Handler<Buffer> dataHandler;
+    private volatile boolean paused;
+
+    protected ProtocolReadStream(Vertx vertx, int maxBatchSize) {
+        this.vertx = vertx;
+        this.maxBatchSize = maxBatchSize;
+        dataOut = new DataByteArrayOutputStream();
+        lock = new ReentrantLock();
+        drained = lock.newCondition();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T self() {
+        return (T) this;
+    }
+
+    @Override
+    public T endHandler(Handler<Void> handler) {
+        return self();
+    }
+
+    @Override
+    public T dataHandler(Handler<Buffer> handler) {
+        dataHandler = handler;
+        scheduleDrain();
+        return self();
+    }
+
+    @Override
+    public T pause() {
+        paused = true;
+        return self();
+    }
+
+    @Override
+    public T resume() {
+        paused = false;
+        scheduleDrain();
+        return self();
+    }
+
+    @Override
+    public T exceptionHandler(Handler<Throwable> handler) {
+        return self();
+    }
+
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * @param maxBatchSize        the maximum number of bytes written in one go, or 0 to write every frame separately
+     * @param maxBatchDelayMicros how long to wait for more frames before writing a batch, or 0 to write at the end of the current tick
+     */
+    public void setWriteBatching(int maxBatchSize, long maxBatchDelayMicros) {
+        this.maxBatchSize = Math.max(0, maxBatchSize);
+        long delay = TimeUnit.MICROSECONDS.toMillis(maxBatchDelayMicros);
+        if (delay == 0 && maxBatchDelayMicros > 0) {
+            delay = 1;
+        }
+        this.maxBatchDelay = maxBatchSize > 0 ? delay : 0;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setPooledBuffers(boolean pooledBuffers) {
+        this.allocator = pooledBuffers ? PooledByteBufAllocator.DEFAULT : null;
+    }
+
+    public boolean isPooledBuffers() {
+        return allocator != null;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public boolean isQueueFull() {
+        return pendingBytes.get() >= maxQueueSize;
+    }
+
+    public void sendToVertx(final Object o) throws IOException {
+        sendToVertx(o, null);
+    }
+
+    public void sendToVertx(final Object o, final AsyncCallback asyncCallback) throws IOException {
+        if (o != null) {
+            if (isQueueFull() && !isOnContext()) {
+                waitForDrain();
+            }
+            Send send = new Send(o, asyncCallback, estimateSize(o));
+            pendingBytes.addAndGet(send.getSize());
+            queue.offer(send);
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Marshal a frame - only ever called from the Vert.x context by the drain task
+     */
+    protected abstract void marshal(Object frame, DataOutput dataOut) throws IOException;
+
+    /**
+     * @return roughly how many bytes the frame will be marshalled to - it's what both the batch size and
+     * the write queue high watermark are measured in, so protocols must account for the payload
+     */
+    protected int estimateSize(Object frame) {
+        return FRAME_OVERHEAD;
+    }
+
+    protected abstract void runOnContext(Handler<Void> handler);
+
+    protected abstract boolean isOnContext();
+
+    protected abstract boolean isTransportStopped();
+
+    protected abstract void handleException(Throwable t);
+
+    private void scheduleDrain() {
+        //nothing can be drained until there's a data handler - setting it schedules the drain
+        if (!paused && dataHandler != null && !queue.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+            runOnContext(drainTask);
+        }
+    }
+
+    /**
+     * Only ever run by the thread that set the drain flag - so the batch and dataOut are not shared
+     */
+    private void drain(boolean allowDelay) {
+        long delay = maxBatchDelay;
+        if (allowDelay && delay > 0 && pendingBytes.get() < maxBatchSize) {
+            //keep hold of the drain flag until the timer fires
+            vertx.setTimer(delay, flushTask);
+            return;
+        }
+        try {
+            while (!paused && !isStopped() && !queue.isEmpty()) {
+                Handler<Buffer> dh = dataHandler;
+                if (dh == null) {
+                    break;
+                }
+                int batchSize = maxBatchSize;
+                int size = 0;
+                Send send;
+                while ((send = queue.poll()) != null) {
+                    batch.add(send);
+                    size += send.getSize();
+                    if (size >= batchSize) {
+                        break;
+                    }
+                }
+                try {
+                    if (batchSize > 0) {
+                        Buffer buffer = createBuffer(batch, size);
+                        if (buffer != null) {
+                            dh.handle(buffer);
+                        }
+                    } else {
+                        for (Send unbatched : batch) {
+                            Buffer buffer = createBuffer(unbatched);
+                            if (buffer != null) {
+                                dh.handle(buffer);
+                            }
+                        }
+                    }
+                } finally {
+                    sent(size);
+                }
+                for (Send sent : batch) {
+                    //a frame that failed to marshal was never written
+                    if (!sent.isFailed()) {
+                        sent.onSuccess();
+                    }
+                }
+                batch.clear();
+            }
+        } catch (Throwable e) {
+            batch.clear();
+            handleException(e);
+        } finally {
+            drainScheduled.set(false);
+        }
+        //catch anything queued after we stopped polling
+        scheduleDrain();
+    }
+
+    private void waitForDrain() throws InterruptedIOException {
+        waitingForDrain.incrementAndGet();
+        lock.lock();
+        try {
+            while (pendingBytes.get() > maxQueueSize / 2 && !isStopping() && !isStopped() && !isTransportStopped()) {
+                drained.await(DRAIN_WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+            waitingForDrain.decrementAndGet();
+        }
+    }
+
+    private void sent(int size) {
+        long pending = pendingBytes.addAndGet(-size);
+        if (waitingForDrain.get() > 0 && pending <= maxQueueSize / 2) {
+            signalDrained();
+        }
+    }
+
+    private void signalDrained() {
+        lock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Buffer createBuffer(Send send) {
+        single.add(send);
+        try {
+            return createBuffer(single, send.getSize());
+        } finally {
+            single.clear();
+        }
+    }
+
+    private Buffer createBuffer(List<Send> sends, int estimatedSize) {
+        ByteBufAllocator allocator = this.allocator;
+        if (allocator != null) {
+            return createPooledBuffer(allocator, sends, estimatedSize);
+        }
+        Buffer buffer = null;
+        dataOut.reset();
+        marshal(sends, dataOut);
+        int size = dataOut.size();
+        if (size > 0) {
+            byte[] data = new byte[size];
+            System.arraycopy(dataOut.getData(), 0, data, 0, size);
+            buffer = new Buffer(data);
+            HEAP_BYTES_ALLOCATED.mark(size);
+        }
+        if (size > ProtocolTransport.COMPACT_SIZE) {
+            dataOut.restart();
+        }
+        return buffer;
+    }
+
+    private Buffer createPooledBuffer(ByteBufAllocator allocator, List<Send> sends, int estimatedSize) {
+        ByteBuf byteBuf = allocator.directBuffer(Math.max(MIN_MARSHAL_BUFFER_SIZE, estimatedSize));
+        try {
+            marshal(sends, byteBuf);
+        } catch (Throwable t) {
+            byteBuf.release();
+            throw t;
+        }
+        if (!byteBuf.isReadable()) {
+            byteBuf.release();
+            return null;
+        }
+        POOLED_BUFFERS_ACQUIRED.mark();
+        return new Buffer(byteBuf);
+    }
+
+    /**
+     * A frame that fails to marshal is rolled back, so none of it is written - the frames either side of
+     * it in the batch are still written intact
+     */
+    private void marshal(List<Send> sends, DataByteArrayOutputStream out) {
+        for (Send send : sends) {
+            int position = out.size();
+            try {
+                marshal(send.getFrame(), out);
+            } catch (Throwable t) {
+                out.position(position);
+                send.setFailed();
+                handleException(t);
+            }
+        }
+    }
+
+    private void marshal(List<Send> sends, ByteBuf byteBuf) {
+        DataOutput out = new ByteBufOutputStream(byteBuf);
+        for (Send send : sends) {
+            int position = byteBuf.writerIndex();
+            try {
+                marshal(send.getFrame(), out);
+            } catch (Throwable t) {
+                byteBuf.writerIndex(position);
+                send.setFailed();
+                handleException(t);
+            }
+        }
+    }
+
+    @Override
+    protected void doStop(ServiceStopper serviceStopper) throws Exception {
+        paused = false;
+        Send send;
+        while ((send = queue.poll()) != null) {
+            pendingBytes.addAndGet(-send.getSize());
+        }
+        signalDrained();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+    }
+
+    private static class Send {
+        final private Object frame;
+        final private AsyncCallback callback;
+        final private int size;
+        private boolean failed;
+
+        Send(Object frame, AsyncCallback callback, int size) {
+            this.frame = frame;
+            this.callback = callback;
+            this.size = size;
+        }
+
+        Object getFrame() {
+            return frame;
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        boolean isFailed() {
+            return failed;
+        }
+
+        void setFailed() {
+            failed = true;
+        }
+
+        void onSuccess() {
+            if (callback != null) {
+                callback.onSuccess();
+            }
+        }
+
+        public String toString() {
+            return "Send[" + frame + "], callback = " + callback;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.protocol;
+
+import org.vertx.java.core.buffer.Buffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The leading bytes that identify a protocol. Each position in the signature is a set
+ * of allowed byte values - so literal bytes, ranges (e.g. a variable length encoded
+ * integer) and wildcards (e.g. a frame size) can all be described.
+ */
+public class ProtocolSignature {
+    private final List<long[]> slots = new ArrayList<>();
+
+    public ProtocolSignature literal(int... values) {
+        for (int value : values) {
+            oneOf(value);
+        }
+        return this;
+    }
+
+    public ProtocolSignature ascii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            oneOf(value.charAt(i));
+        }
+        return this;
+    }
+
+    public ProtocolSignature oneOf(int... values) {
+        long[] slot = new long[4];
+        for (int value : values) {
+            set(slot, value);
+        }
+        slots.add(slot);
+        return this;
+    }
+
+    public ProtocolSignature range(int from, int to) {
+        long[] slot = new long[4];
+        for (int value = from; value <= to; value++) {
+            set(slot, value);
+        }
+        slots.add(slot);
+        return this;
+    }
+
+    public ProtocolSignature any(int count) {
+        for (int i = 0; i < count; i++) {
+            range(0, 0xFF);
+        }
+        return this;
+    }
+
+    public int length() {
+        return slots.size();
+    }
+
+    /**
+     * @return true if the buffer starts with this signature
+     */
+    public boolean matches(Buffer buffer) {
+        if (buffer.length() < slots.size()) {
+            return false;
+        }
+        for (int i = 0; i < slots.size(); i++) {
+            if (!contains(slots.get(i), buffer.getByte(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long[] getSlot(int index) {
+        return slots.get(index);
+    }
+
+    static boolean contains(long[] slot, byte value) {
+        int b = value & 0xFF;
+        return (slot[b >>> 6] & (1L << (b & 63))) != 0;
+    }
+
+    static boolean sameSlot(long[] a, long[] b) {
+        return Arrays.equals(a, b);
+    }
+
+    private static void set(long[] slot, int value) {
+        int b = value & 0xFF;
+        slot[b >>> 6] |= 1L << (b & 63);
+    }
+
+    public static boolean matches(ProtocolSignature[] signatures, Buffer buffer) {
+        for (ProtocolSignature signature : signatures) {
+            if (signature.matches(buffer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
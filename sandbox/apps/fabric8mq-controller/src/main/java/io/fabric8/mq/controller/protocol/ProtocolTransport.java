@@ -16,13 +16,41 @@
 package io.fabric8.mq.controller.protocol;
 
 import org.apache.activemq.transport.Transport;
+import org.vertx.java.core.Context;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.streams.ReadStream;
 import org.vertx.java.core.streams.WriteStream;
 
 public interface ProtocolTransport<T> extends Transport, ReadStream<T>, WriteStream<T> {
     public static final int COMPACT_SIZE = 128 * 1024;
+    public static final int DEFAULT_WRITE_QUEUE_MAX_SIZE = 1024 * 1024;
 
     T stopHandler(Handler<Void> var1);
 
+    /**
+     * Gather the frames written to the client within one event loop tick into a single write
+     *
+     * @param maxBatchSize        the maximum number of bytes written in one go, or 0 to write every frame separately
+     * @param maxBatchDelayMicros how long to wait for more frames before writing a batch, or 0 to write at the end of the current tick
+     */
+    T setWriteBatching(int maxBatchSize, long maxBatchDelayMicros);
+
+    /**
+     * Pin the transport to the event loop context of the client socket, so that commands from
+     * the brokers are marshalled and written on the same thread that reads from the client
+     */
+    T setContext(Context context);
+
+    /**
+     * Stop accepting data from the client - {@link #writeQueueFull()} reports true, so the pump from the
+     * client socket pauses it, until the input is no longer suspended
+     */
+    T setInputSuspended(boolean suspended);
+
+    /**
+     * @return true while the frames queued for the client are over the high watermark - sending another
+     * from a thread that isn't the Vert.x context would block until the client has caught up
+     */
+    boolean isOutboundQueueFull();
+
 }
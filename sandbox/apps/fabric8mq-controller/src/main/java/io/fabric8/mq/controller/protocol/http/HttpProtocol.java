@@ -15,6 +15,7 @@
 package io.fabric8.mq.controller.protocol.http;
 
 import io.fabric8.mq.controller.protocol.ProtocolDetector;
+import io.fabric8.mq.controller.protocol.ProtocolSignature;
 import io.fabric8.mq.controller.util.ConnectionParameters;
 import io.fabric8.mq.controller.util.SocketWrapper;
 import org.slf4j.Logger;
@@ -27,6 +28,16 @@ import org.vertx.java.core.buffer.Buffer;
 public class HttpProtocol implements ProtocolDetector {
     private static final transient Logger LOG = LoggerFactory.getLogger(HttpProtocol.class);
     private static final String[] SCHEMES = new String[]{"http"};
+    private static final ProtocolSignature[] SIGNATURES = new ProtocolSignature[]{
+        new ProtocolSignature().ascii("GET"),
+        new ProtocolSignature().ascii("HEAD"),
+        new ProtocolSignature().ascii("POST"),
+        new ProtocolSignature().ascii("PUT"),
+        new ProtocolSignature().ascii("DELETE"),
+        new ProtocolSignature().ascii("OPTIONS"),
+        new ProtocolSignature().ascii("TRACE"),
+        new ProtocolSignature().ascii("CONNECT")
+    };
 
     @Override
     public String getProtocolName() {
@@ -42,18 +53,14 @@ public class HttpProtocol implements ProtocolDetector {
         return "CONNECT".length();
     }
 
+    @Override
+    public ProtocolSignature[] getSignatures() {
+        return SIGNATURES;
+    }
+
     @Override
     public boolean matches(Buffer buffer) {
-        String header = buffer.toString();
-        return
-            header.startsWith("GET") ||
-                header.startsWith("HEAD") ||
-                header.startsWith("POST") ||
-                header.startsWith("PUT") ||
-                header.startsWith("DELETE") ||
-                header.startsWith("OPTIONS") ||
-                header.startsWith("TRACE") ||
-                header.startsWith("CONNECT");
+        return ProtocolSignature.matches(SIGNATURES, buffer);
     }
 
     @Override
@@ -15,195 +15,64 @@
 
 package io.fabric8.mq.controller.protocol.mqtt;
 
-import org.apache.activemq.AsyncCallback;
-import org.apache.activemq.command.Command;
+import io.fabric8.mq.controller.protocol.ProtocolReadStream;
 import org.apache.activemq.transport.mqtt.MQTTWireFormat;
-import org.apache.activemq.util.DataByteArrayOutputStream;
-import org.apache.activemq.util.ServiceStopper;
-import org.apache.activemq.util.ServiceSupport;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.mqtt.codec.MQTTFrame;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.Vertx;
 
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
-
-class MQTTReadStream extends ServiceSupport implements ReadStream<MQTTReadStream> {
 
+/**
+ * Marshals outbound MQTT frames to the client - write batching is off unless enabled
+ * on the transport.
+ */
+class MQTTReadStream extends ProtocolReadStream<MQTTReadStream> {
     private final MQTTTransport transport;
     private final MQTTWireFormat wireFormat;
-    private final DataByteArrayOutputStream dataOut;
-    private final ReentrantLock lock;
-    private Handler<Buffer> dataHandler;
-    private boolean paused;
-    private BlockingQueue<Send> queue;
 
-    MQTTReadStream(MQTTTransport transport, final MQTTWireFormat wireFormat) {
+    MQTTReadStream(Vertx vertx, MQTTTransport transport, final MQTTWireFormat wireFormat) {
+        super(vertx, 0);
         this.transport = transport;
         this.wireFormat = wireFormat;
-        dataOut = new DataByteArrayOutputStream();
-        lock = new ReentrantLock();
-    }
-
-    @Override
-    public MQTTReadStream endHandler(Handler<Void> handler) {
-        return this;
     }
 
     @Override
-    public MQTTReadStream dataHandler(Handler<Buffer> handler) {
-        dataHandler = handler;
-        return this;
-    }
-
-    @Override
-    public MQTTReadStream pause() {
-        ReentrantLock lock = this.lock;
-        try {
-            lock.lockInterruptibly();
-            paused = true;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            lock.unlock();
-        }
-        return this;
+    protected void marshal(Object frame, DataOutput dataOut) throws IOException {
+        wireFormat.marshal(frame, dataOut);
     }
 
     @Override
-    public MQTTReadStream resume() {
-        final ReentrantLock lock = MQTTReadStream.this.lock;
-        try {
-            lock.lockInterruptibly();
-            if (paused) {
-                final BlockingQueue<Send> queue = this.queue;
-                if (queue != null && !queue.isEmpty()) {
-                    Send send = queue.poll(50, TimeUnit.MILLISECONDS);
-                    do {
-                        Buffer buffer = MQTTReadStream.this.createBuffer(send.getCommand());
-                        if (buffer != null) {
-                            final Handler<Buffer> dh = dataHandler;
-                            if (dh != null) {
-                                dh.handle(buffer);
-                                send.onSuccess();
-                            } else {
-                                throw new IllegalStateException("No Data Handler");
-                            }
-                        }
-
-                    } while (send != null && !queue.isEmpty());
-
-                }
+    protected int estimateSize(Object frame) {
+        int size = FRAME_OVERHEAD;
+        Buffer[] buffers = ((MQTTFrame) frame).buffers;
+        if (buffers != null) {
+            for (Buffer buffer : buffers) {
+                size += buffer.length;
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            paused = false;
-            lock.unlock();
         }
-        return this;
+        return size;
     }
 
     @Override
-    public MQTTReadStream exceptionHandler(Handler<Throwable> handler) {
-        return this;
-    }
-
-    protected void sendToVertx(final Object o) throws IOException {
-        sendToVertx(o, null);
-    }
-
-    protected void sendToVertx(final Object o, final AsyncCallback asyncCallback) throws IOException {
-        final ReentrantLock lock = MQTTReadStream.this.lock;
-        try {
-            lock.lockInterruptibly();
-            if (paused) {
-                if (queue == null) {
-                    queue = new LinkedBlockingDeque<>();
-                }
-                queue.add(new Send((Command) o, asyncCallback));
-            } else {
-                Buffer buffer = MQTTReadStream.this.createBuffer(o);
-                if (buffer != null) {
-                    final Handler<Buffer> dh = dataHandler;
-                    if (dh != null) {
-                        dh.handle(buffer);
-                        if (asyncCallback != null) {
-                            asyncCallback.onSuccess();
-                        }
-                    } else {
-                        throw new IllegalStateException("No Data Handler");
-                    }
-                }
-
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    private Buffer createBuffer(Object command) {
-        Buffer buffer = null;
-
-        if (command != null) {
-            try {
-                wireFormat.marshal(command, dataOut);
-                dataOut.flush();
-                int size = dataOut.size();
-                byte[] data = new byte[size];
-                System.arraycopy(dataOut.getData(), 0, data, 0, size);
-                if (size > MQTTTransport.COMPACT_SIZE) {
-                    dataOut.restart();
-                }
-                dataOut.reset();
-                buffer = new Buffer(data);
-            } catch (Throwable t) {
-                transport.handleException(t);
-            }
-        }
-        return buffer;
+    protected void runOnContext(Handler<Void> handler) {
+        transport.runOnContext(handler);
     }
 
     @Override
-    protected void doStop(ServiceStopper serviceStopper) throws Exception {
-        paused = false;
+    protected boolean isOnContext() {
+        return transport.isOnContext();
     }
 
     @Override
-    protected void doStart() throws Exception {
+    protected boolean isTransportStopped() {
+        return transport.isStopped();
     }
 
-    private class Send {
-        final private Command command;
-        final private AsyncCallback callback;
-
-        Send(Command command, AsyncCallback callback) {
-            this.command = command;
-            this.callback = callback;
-        }
-
-        Send(Command command) {
-            this.command = command;
-            this.callback = null;
-        }
-
-        Command getCommand() {
-            return command;
-        }
-
-        void onSuccess() {
-            if (callback != null) {
-                callback.onSuccess();
-            }
-        }
-
-        public String toString() {
-            return "Send[" + command + "], callback = " + callback;
-        }
+    @Override
+    protected void handleException(Throwable t) {
+        transport.handleException(t);
     }
 }
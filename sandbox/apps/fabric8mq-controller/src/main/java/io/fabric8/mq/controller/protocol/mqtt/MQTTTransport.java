@@ -26,6 +26,7 @@ import org.apache.activemq.util.ServiceStopper;
 import org.fusesource.mqtt.codec.MQTTFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Context;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
@@ -42,6 +43,7 @@ public class MQTTTransport extends TransportSupport implements ProtocolTransport
     private static final transient Logger LOG = LoggerFactory.getLogger(MQTTTransport.class);
 
     private final Vertx vertx;
+    private volatile Context context;
     private final AtomicInteger receiveCounter = new AtomicInteger();
     private final String name;
     private final MQTTWriteStream writeStream;
@@ -57,7 +59,7 @@ public class MQTTTransport extends TransportSupport implements ProtocolTransport
         this.vertx = vertx;
         this.inactivityMonitor = new InactivityMonitor(asyncExecutors, this, false);
         writeStream = new MQTTWriteStream(this, wireFormat);
-        readStream = new MQTTReadStream(this, wireFormat);
+        readStream = new MQTTReadStream(vertx, this, wireFormat);
         protocolConverter = new MQTTProtocolConverter(this);
     }
 
@@ -129,11 +131,41 @@ public class MQTTTransport extends TransportSupport implements ProtocolTransport
     }
 
     protected void runOnContext(Handler<Void> handler) {
-        vertx.runOnContext(handler);
+        Context pinned = context;
+        if (pinned != null) {
+            pinned.runOnContext(handler);
+        } else {
+            vertx.runOnContext(handler);
+        }
+    }
+
+    /**
+     * True on any event loop thread - which must never block waiting for the client to drain
+     */
+    protected boolean isOnContext() {
+        return vertx.currentContext() != null;
+    }
+
+    @Override
+    public MQTTTransport setContext(Context context) {
+        this.context = context;
+        return this;
+    }
+
+    @Override
+    public MQTTTransport setInputSuspended(boolean suspended) {
+        writeStream.setSuspended(suspended);
+        return this;
+    }
+
+    @Override
+    public boolean isOutboundQueueFull() {
+        return readStream.isQueueFull();
     }
 
     public MQTTTransport setWriteQueueMaxSize(int i) {
         writeStream.setWriteQueueMaxSize(i);
+        readStream.setMaxQueueSize(i);
         return this;
     }
 
@@ -142,6 +174,12 @@ public class MQTTTransport extends TransportSupport implements ProtocolTransport
         return writeStream.writeQueueFull();
     }
 
+    @Override
+    public MQTTTransport setWriteBatching(int maxBatchSize, long maxBatchDelayMicros) {
+        readStream.setWriteBatching(maxBatchSize, maxBatchDelayMicros);
+        return this;
+    }
+
     @Override
     public MQTTTransport drainHandler(Handler<Void> handler) {
         writeStream.drainHandler(handler);
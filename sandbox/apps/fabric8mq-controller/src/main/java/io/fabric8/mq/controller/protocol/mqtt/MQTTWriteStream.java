@@ -27,6 +27,7 @@ import org.vertx.java.core.streams.WriteStream;
 class MQTTWriteStream extends ServiceSupport implements WriteStream<MQTTWriteStream> {
     private final MQTTTransport transport;
     private Handler<Void> drainHandler;
+    private volatile boolean suspended;
     private MQTTCodec codec;
 
     MQTTWriteStream(MQTTTransport transport, MQTTWireFormat wireFormat) {
@@ -52,7 +53,18 @@ class MQTTWriteStream extends ServiceSupport implements WriteStream<MQTTWriteStr
 
     @Override
     public boolean writeQueueFull() {
-        return false;
+        return suspended;
+    }
+
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        if (!suspended) {
+            transport.runOnContext(new VoidHandler() {
+                public void handle() {
+                    callDrainHandler();
+                }
+            });
+        }
     }
 
     @Override
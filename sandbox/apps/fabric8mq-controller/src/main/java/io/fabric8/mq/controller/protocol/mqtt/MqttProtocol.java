@@ -15,6 +15,7 @@
 package io.fabric8.mq.controller.protocol.mqtt;
 
 import io.fabric8.mq.controller.protocol.ProtocolDetector;
+import io.fabric8.mq.controller.protocol.ProtocolSignature;
 import io.fabric8.mq.controller.util.BufferSupport;
 import io.fabric8.mq.controller.util.ConnectionParameters;
 import io.fabric8.mq.controller.util.SocketWrapper;
@@ -30,11 +31,9 @@ import org.vertx.java.core.buffer.Buffer;
  * Implements protocol decoding for the MQTT protocol.
  */
 public class MqttProtocol implements ProtocolDetector {
-    static final Buffer HEAD_MAGIC = new Buffer(new byte[]{0x10});
-    static final Buffer MQTT31_TAIL_MAGIC = new Buffer(new byte[]{0x00, 0x06, 'M', 'Q', 'I', 's', 'd', 'p'});
-    static final Buffer MQTT311_TAIL_MAGIC = new Buffer(new byte[]{0x00, 0x04, 'M', 'Q', 'T', 'T'});
     private static final transient Logger LOG = LoggerFactory.getLogger(MqttProtocol.class);
     private static final String[] SCHEMES = new String[]{"mqtt", "mqtt+nio"};
+    private static final ProtocolSignature[] SIGNATURES = createSignatures();
     int maxMessageLength = 1024 * 1024 * 100;
 
     static void append(Buffer self, MQTTFrame value) {
@@ -73,9 +72,35 @@ public class MqttProtocol implements ProtocolDetector {
         return 13;
     }
 
+    /**
+     * A CONNECT fixed header, a remaining length of 1 to 4 bytes, followed by the protocol name
+     */
+    private static ProtocolSignature[] createSignatures() {
+        ProtocolSignature[] signatures = new ProtocolSignature[8];
+        int index = 0;
+        for (int lengthBytes = 1; lengthBytes <= 4; lengthBytes++) {
+            for (String protocolName : new String[]{"MQTT", "MQIsdp"}) {
+                ProtocolSignature signature = new ProtocolSignature().literal(0x10);
+                for (int i = 1; i < lengthBytes; i++) {
+                    //continuation bit set
+                    signature.range(0x80, 0xFF);
+                }
+                signature.range(0x00, 0x7F);
+                signature.literal(0x00, protocolName.length()).ascii(protocolName);
+                signatures[index++] = signature;
+            }
+        }
+        return signatures;
+    }
+
+    @Override
+    public ProtocolSignature[] getSignatures() {
+        return SIGNATURES;
+    }
+
     @Override
     public boolean matches(Buffer header) {
-        return header.length() >= 10 && BufferSupport.startsWith(header, HEAD_MAGIC) && (BufferSupport.indexOf(header, 2, MQTT31_TAIL_MAGIC) < 6 || BufferSupport.indexOf(header, 2, MQTT311_TAIL_MAGIC) < 6);
+        return ProtocolSignature.matches(SIGNATURES, header);
     }
 
     @Override
@@ -15,201 +15,71 @@
 
 package io.fabric8.mq.controller.protocol.openwire;
 
-import org.apache.activemq.AsyncCallback;
-import org.apache.activemq.command.Command;
+import io.fabric8.mq.controller.protocol.ProtocolReadStream;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageDispatch;
 import org.apache.activemq.openwire.OpenWireFormat;
-import org.apache.activemq.util.DataByteArrayOutputStream;
-import org.apache.activemq.util.ServiceStopper;
-import org.apache.activemq.util.ServiceSupport;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.Vertx;
 
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
-
-class OpenWireReadStream extends ServiceSupport implements ReadStream<OpenWireReadStream> {
 
+/**
+ * Marshals outbound OpenWire commands to the client - batching is enabled by default,
+ * so a burst of dispatches to the same client results in one socket write.
+ */
+class OpenWireReadStream extends ProtocolReadStream<OpenWireReadStream> {
     private final OpenWireTransport transport;
     private final OpenWireFormat wireFormat;
-    private final DataByteArrayOutputStream dataOut;
-    private final ReentrantLock lock;
-    private Handler<Buffer> dataHandler;
-    private boolean paused;
-    private BlockingQueue<Send> queue;
 
-    OpenWireReadStream(OpenWireTransport transport, final OpenWireFormat wireFormat) {
+    OpenWireReadStream(Vertx vertx, OpenWireTransport transport, final OpenWireFormat wireFormat) {
+        super(vertx, DEFAULT_MAX_BATCH_SIZE);
         this.transport = transport;
         this.wireFormat = wireFormat;
-        dataOut = new DataByteArrayOutputStream();
-        lock = new ReentrantLock();
-    }
-
-    @Override
-    public OpenWireReadStream endHandler(Handler<Void> handler) {
-        return this;
     }
 
     @Override
-    public OpenWireReadStream dataHandler(Handler<Buffer> handler) {
-        dataHandler = handler;
-        return this;
-    }
-
-    @Override
-    public OpenWireReadStream pause() {
-        ReentrantLock lock = this.lock;
-        try {
-            lock.lockInterruptibly();
-            paused = true;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            lock.unlock();
+    protected void marshal(Object frame, DataOutput dataOut) throws IOException {
+        if (frame instanceof byte[]) {
+            //already marshalled
+            dataOut.write((byte[]) frame);
+        } else {
+            wireFormat.marshal(frame, dataOut);
         }
-        return this;
     }
 
     @Override
-    public OpenWireReadStream resume() {
-        final ReentrantLock lock = OpenWireReadStream.this.lock;
-        try {
-            lock.lockInterruptibly();
-            if (paused) {
-                final BlockingQueue<Send> queue = this.queue;
-                if (queue != null && !queue.isEmpty()) {
-                    Send send = queue.poll(50, TimeUnit.MILLISECONDS);
-                    do {
-                        Buffer buffer = OpenWireReadStream.this.createBuffer(send.getCommand());
-                        if (buffer != null) {
-                            final Handler<Buffer> dh = dataHandler;
-                            if (dh != null) {
-                                dh.handle(buffer);
-                                send.onSuccess();
-                            } else {
-                                throw new IllegalStateException("No Data Handler");
-                            }
-                        }
-
-                    } while (send != null && !queue.isEmpty());
-
-                }
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            paused = false;
-            lock.unlock();
+    protected int estimateSize(Object frame) {
+        if (frame instanceof byte[]) {
+            return ((byte[]) frame).length;
         }
-        return this;
-    }
-
-    @Override
-    public OpenWireReadStream exceptionHandler(Handler<Throwable> handler) {
-        return this;
-    }
-
-    protected void sendToVertx(final Object o) throws IOException {
-        sendToVertx(o, null);
-    }
-
-    protected void sendToVertx(final Object o, final AsyncCallback asyncCallback) throws IOException {
-        final ReentrantLock lock = OpenWireReadStream.this.lock;
-        try {
-            lock.lockInterruptibly();
-            if (paused) {
-                if (queue == null) {
-                    queue = new LinkedBlockingDeque<>();
-                }
-                queue.add(new Send((Command) o, asyncCallback));
-            } else {
-                final Buffer buffer = OpenWireReadStream.this.createBuffer((Command) o);
-                if (buffer != null) {
-                    final Handler<Buffer> dh = dataHandler;
-                    if (dh != null) {
-                        transport.runOnContext(new Handler<Void>() {
-                            @Override
-                            public void handle(Void aVoid) {
-                                dh.handle(buffer);
-                                if (asyncCallback != null) {
-                                    asyncCallback.onSuccess();
-                                }
-                            }
-                        });
-
-                    } else {
-                        throw new IllegalStateException("No Data Handler");
-                    }
-                }
-
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            lock.unlock();
+        Message message = null;
+        if (frame instanceof MessageDispatch) {
+            message = ((MessageDispatch) frame).getMessage();
+        } else if (frame instanceof Message) {
+            message = (Message) frame;
         }
+        return message != null ? message.getSize() + FRAME_OVERHEAD : FRAME_OVERHEAD;
     }
 
-    private Buffer createBuffer(Command command) {
-        Buffer buffer = null;
-
-        if (command != null) {
-            try {
-                wireFormat.marshal(command, dataOut);
-                dataOut.flush();
-                int size = dataOut.size();
-                byte[] data = new byte[size];
-                System.arraycopy(dataOut.getData(), 0, data, 0, size);
-                if (size > OpenWireTransport.COMPACT_SIZE) {
-                    dataOut.restart();
-                }
-                dataOut.reset();
-                buffer = new Buffer(data);
-            } catch (Throwable t) {
-                transport.handleException(t);
-            }
-        }
-        return buffer;
+    @Override
+    protected void runOnContext(Handler<Void> handler) {
+        transport.runOnContext(handler);
     }
 
     @Override
-    protected void doStop(ServiceStopper serviceStopper) throws Exception {
-        paused = false;
+    protected boolean isOnContext() {
+        return transport.isOnContext();
     }
 
     @Override
-    protected void doStart() throws Exception {
+    protected boolean isTransportStopped() {
+        return transport.isStopped();
     }
 
-    private class Send {
-        final private Command command;
-        final private AsyncCallback callback;
-
-        Send(Command command, AsyncCallback callback) {
-            this.command = command;
-            this.callback = callback;
-        }
-
-        Send(Command command) {
-            this.command = command;
-            this.callback = null;
-        }
-
-        Command getCommand() {
-            return command;
-        }
-
-        void onSuccess() {
-            if (callback != null) {
-                callback.onSuccess();
-            }
-        }
-
-        public String toString() {
-            return "Send[" + command + "], callback = " + callback;
-        }
+    @Override
+    protected void handleException(Throwable t) {
+        transport.handleException(t);
     }
 }
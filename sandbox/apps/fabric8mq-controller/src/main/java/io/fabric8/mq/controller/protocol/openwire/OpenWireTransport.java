@@ -18,22 +18,22 @@ package io.fabric8.mq.controller.protocol.openwire;
 import io.fabric8.mq.controller.AsyncExecutors;
 import io.fabric8.mq.controller.protocol.InactivityMonitor;
 import io.fabric8.mq.controller.protocol.ProtocolTransport;
-import org.apache.activemq.AsyncCallback;
 import org.apache.activemq.command.Command;
 import org.apache.activemq.command.KeepAliveInfo;
 import org.apache.activemq.command.WireFormatInfo;
 import org.apache.activemq.openwire.OpenWireFormat;
 import org.apache.activemq.transport.TransportListener;
 import org.apache.activemq.transport.TransportSupport;
+import org.apache.activemq.util.ByteSequence;
 import org.apache.activemq.util.IOExceptionSupport;
 import org.apache.activemq.util.ServiceStopper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Context;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
 
-import javax.jms.JMSException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.concurrent.CountDownLatch;
@@ -55,6 +55,7 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
     private final OpenWireWriteStream writeStream;
     private final OpenWireReadStream readStream;
     private final Vertx vertx;
+    private volatile Context context;
     private final InactivityMonitor inactivityMonitor;
     private final AtomicBoolean firstStart;
     private final CountDownLatch readyCountDownLatch;
@@ -63,13 +64,14 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
     private Handler<Throwable> exceptionHandler;
     private Handler<Void> stopHandler;
     private long negotiateTimeout = NEGIOTIATE_TIMEOUT;
+    private volatile boolean negotiated;
 
     protected OpenWireTransport(Vertx vertx, AsyncExecutors asyncExecutors, String name, OpenWireFormat wireFormat) {
         this.name = name;
         this.vertx = vertx;
         this.openWireFormat = wireFormat;
         writeStream = new OpenWireWriteStream(this, wireFormat);
-        readStream = new OpenWireReadStream(this, wireFormat);
+        readStream = new OpenWireReadStream(vertx, this, wireFormat);
         firstStart = new AtomicBoolean(true);
         readyCountDownLatch = new CountDownLatch(1);
         wireInfoSentDownLatch = new CountDownLatch(1);
@@ -95,7 +97,7 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
         if (handler != null) {
             handler.handle(null);
         }
-        readyCountDownLatch.countDown();
+        ready();
         serviceStopper.stop(writeStream);
         serviceStopper.stop(readStream);
         serviceStopper.stop(inactivityMonitor);
@@ -111,28 +113,38 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
         }
     }
 
+    /**
+     * Our WireFormatInfo is marshalled here, before any bytes from the client are processed - so it's
+     * always written with the initial wire format, and negotiate() never has to wait for it to be written
+     */
     public void sendWireFormat() throws IOException {
 
         WireFormatInfo info = openWireFormat.getPreferedWireFormatInfo();
         if (LOG.isDebugEnabled()) {
             LOG.debug("Sending: " + info);
         }
-        readStream.sendToVertx(info, new AsyncCallback() {
-            @Override
-            public void onSuccess() {
-                wireInfoSentDownLatch.countDown();
-            }
-
-            @Override
-            public void onException(JMSException exception) {
-                wireInfoSentDownLatch.countDown();
-            }
-        });
+        ByteSequence sequence = openWireFormat.marshal(info);
+        sequence.compact();
+        readStream.sendToVertx(sequence.getData());
+        wireInfoSentDownLatch.countDown();
     }
 
+    /**
+     * Can be called concurrently from any thread - commands are queued and written
+     * to the client on the Vert.x context. Only blocks until the wire format has been negotiated,
+     * or if the client isn't keeping up with the commands sent to it.
+     */
     @Override
-    public synchronized void oneway(Object o) throws IOException {
+    public void oneway(Object o) throws IOException {
+        if (!negotiated) {
+            waitUntilNegotiated();
+        }
         inactivityMonitor.startWrite();
+        readStream.sendToVertx(o);
+        inactivityMonitor.finishedWrite();
+    }
+
+    private void waitUntilNegotiated() throws IOException {
         try {
             if (!readyCountDownLatch.await(negotiateTimeout, TimeUnit.MILLISECONDS)) {
                 throw new IOException("Wire format negotiation timeout: peer did not send his wire format.");
@@ -141,8 +153,11 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
             Thread.currentThread().interrupt();
             throw new InterruptedIOException();
         }
-        readStream.sendToVertx(o);
-        inactivityMonitor.finishedWrite();
+    }
+
+    private void ready() {
+        negotiated = true;
+        readyCountDownLatch.countDown();
     }
 
     @Override
@@ -162,19 +177,78 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
     }
 
     protected void runOnContext(Handler<Void> handler) {
-        vertx.runOnContext(handler);
+        Context pinned = context;
+        if (pinned != null) {
+            pinned.runOnContext(handler);
+        } else {
+            vertx.runOnContext(handler);
+        }
+    }
+
+    /**
+     * @return the context of the calling thread, or null if it isn't an event loop
+     */
+    protected Context getCurrentContext() {
+        return vertx.currentContext();
+    }
+
+    /**
+     * True on any event loop thread - which must never block waiting for the client to drain
+     */
+    protected boolean isOnContext() {
+        return vertx.currentContext() != null;
+    }
+
+    @Override
+    public OpenWireTransport setContext(Context context) {
+        this.context = context;
+        return this;
     }
 
+    @Override
+    public OpenWireTransport setInputSuspended(boolean suspended) {
+        writeStream.setSuspended(suspended);
+        return this;
+    }
+
+    @Override
+    public boolean isOutboundQueueFull() {
+        return readStream.isQueueFull();
+    }
+
+    /**
+     * Sets the high watermark (in bytes) for both directions - the bytes from the client
+     * waiting to be unmarshalled, and the marshalled commands waiting to be written to the client
+     */
     public OpenWireTransport setWriteQueueMaxSize(int i) {
         writeStream.setWriteQueueMaxSize(i);
+        readStream.setMaxQueueSize(i);
         return this;
     }
 
+    /**
+     * Marshal outbound commands into pooled direct buffers - only safe when the data handler
+     * writes to a NetSocket, which releases the buffer back to the pool once it has been written
+     */
+    public void setPooledBuffers(boolean pooledBuffers) {
+        readStream.setPooledBuffers(pooledBuffers);
+    }
+
+    public boolean isPooledBuffers() {
+        return readStream.isPooledBuffers();
+    }
+
     @Override
     public boolean writeQueueFull() {
         return writeStream.writeQueueFull();
     }
 
+    @Override
+    public OpenWireTransport setWriteBatching(int maxBatchSize, long maxBatchDelayMicros) {
+        readStream.setWriteBatching(maxBatchSize, maxBatchDelayMicros);
+        return this;
+    }
+
     @Override
     public OpenWireTransport drainHandler(Handler<Void> handler) {
         writeStream.drainHandler(handler);
@@ -217,7 +291,7 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
 
     protected void handleException(Throwable t) {
         LOG.error("Got an exception ", t);
-        readyCountDownLatch.countDown();
+        ready();
         if (exceptionHandler != null) {
             try {
                 exceptionHandler.handle(t);
@@ -244,7 +318,13 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
         }
 
         try {
-            wireInfoSentDownLatch.await(5, TimeUnit.MINUTES);
+            if (wireInfoSentDownLatch.getCount() > 0) {
+                //never block the event loop - it would be holding up every other connection on it
+                if (isOnContext()) {
+                    throw new IOException("Received the client wire format before ours was sent");
+                }
+                wireInfoSentDownLatch.await(5, TimeUnit.MINUTES);
+            }
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug(this + " before negotiation: " + openWireFormat);
@@ -268,7 +348,7 @@ public class OpenWireTransport extends TransportSupport implements ProtocolTrans
         } catch (Exception e) {
             onException(IOExceptionSupport.create(e));
         }
-        readyCountDownLatch.countDown();
+        ready();
         onWireFormatNegotiated(info);
     }
 
@@ -15,53 +15,102 @@
 
 package io.fabric8.mq.controller.protocol.openwire;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import org.apache.activemq.openwire.OpenWireFormat;
-import org.apache.activemq.util.DataByteArrayInputStream;
 import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
+import org.vertx.java.core.Context;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.streams.WriteStream;
 
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accepts raw bytes from the client socket and turns them into OpenWire commands.
+ * Bytes that have been written but not yet unmarshalled on the Vert.x context are
+ * accounted for, so a {@link org.vertx.java.core.streams.Pump} from the client socket
+ * will pause the socket once the high watermark is reached, and resume it once the
+ * queue has fallen back below the low watermark (half the maximum size).
+ * <p>
+ * Incoming buffers are added (without copying) to a composite buffer, and each frame is
+ * unmarshalled directly from a slice of it. Fully consumed buffers are discarded rather
+ * than compacting the remaining bytes into a new buffer.
+ */
 class OpenWireWriteStream extends ServiceSupport implements WriteStream<OpenWireWriteStream> {
     private final OpenWireTransport transport;
     private final OpenWireFormat wireFormat;
-    private final DataByteArrayInputStream dataIn;
-    private Handler<Void> drainHandler;
-    private Buffer readBuffer = null;
-    private int readStart;
+    private static final int MAX_COMPONENTS = 256;
+    private final CompositeByteBuf readBuffer;
+    private final AtomicInteger pendingBytes = new AtomicInteger();
+    private volatile int maxQueueSize = OpenWireTransport.DEFAULT_WRITE_QUEUE_MAX_SIZE;
+    private volatile boolean drainRequested;
+    private volatile boolean suspended;
+    private volatile Handler<Void> drainHandler;
+    //the context that processes the buffers - the only one that touches the readBuffer
+    private volatile Context processContext;
 
     OpenWireWriteStream(OpenWireTransport transport, OpenWireFormat wireFormat) {
         this.transport = transport;
         this.wireFormat = wireFormat;
-        this.dataIn = new DataByteArrayInputStream();
+        this.readBuffer = Unpooled.compositeBuffer(MAX_COMPONENTS);
     }
 
     @Override
     public OpenWireWriteStream write(final Buffer buffer) {
+        final int size = buffer.length();
+        pendingBytes.addAndGet(size);
         transport.runOnContext(new VoidHandler() {
             @Override
             protected void handle() {
-                process(buffer);
+                try {
+                    process(buffer);
+                } finally {
+                    pendingBytes.addAndGet(-size);
+                    if (drainRequested) {
+                        callDrainHandler();
+                    }
+                }
             }
         });
         return this;
     }
 
     @Override
-    public OpenWireWriteStream setWriteQueueMaxSize(int i) {
+    public OpenWireWriteStream setWriteQueueMaxSize(int size) {
+        this.maxQueueSize = size;
         return this;
     }
 
     @Override
     public boolean writeQueueFull() {
-        return false;
+        return suspended || pendingBytes.get() >= maxQueueSize;
+    }
+
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        if (!suspended && drainRequested) {
+            transport.runOnContext(new VoidHandler() {
+                public void handle() {
+                    callDrainHandler();
+                }
+            });
+        }
+    }
+
+    int getPendingBytes() {
+        return pendingBytes.get();
     }
 
     @Override
     public OpenWireWriteStream drainHandler(Handler<Void> handler) {
         this.drainHandler = handler;
+        this.drainRequested = handler != null;
         transport.runOnContext(new VoidHandler() {
             public void handle() {
                 callDrainHandler();
@@ -76,10 +125,13 @@ class OpenWireWriteStream extends ServiceSupport implements WriteStream<OpenWire
     }
 
     private void callDrainHandler() {
-        if (drainHandler != null) {
-            if (!writeQueueFull()) {
+        Handler<Void> handler = drainHandler;
+        if (handler != null && drainRequested) {
+            //only resume the producer once we are back below the low watermark
+            if (!suspended && pendingBytes.get() <= maxQueueSize / 2) {
+                drainRequested = false;
                 try {
-                    drainHandler.handle(null);
+                    handler.handle(null);
                 } catch (Throwable t) {
                     transport.handleHandlerException(t);
                 }
@@ -88,42 +140,39 @@ class OpenWireWriteStream extends ServiceSupport implements WriteStream<OpenWire
     }
 
     private void process(Buffer event) {
+        //recorded before checking if we are stopping - so doStop either sees it, or we see the stop
+        if (processContext == null) {
+            processContext = transport.getCurrentContext();
+        }
         if (!isStopped() && !isStopping()) {
-            if (readBuffer == null) {
-                readBuffer = event;
-            } else {
-                readBuffer.appendBuffer(event);
+            ByteBuf data = event.getByteBuf();
+            int length = data.readableBytes();
+            if (length == 0) {
+                return;
             }
+            //the composite buffer releases its components when they are discarded
+            readBuffer.addComponent(data.retain());
+            readBuffer.writerIndex(readBuffer.writerIndex() + length);
             try {
-                while (readBuffer != null && ((readStart + 4) < readBuffer.length())) {
-                    int packetLength = readBuffer.getInt(readStart);
+                while (readBuffer.readableBytes() >= 4) {
+                    int packetLength = readBuffer.getInt(readBuffer.readerIndex());
+                    if (packetLength < 0 || packetLength > wireFormat.getMaxFrameSize()) {
+                        throw new IOException("Invalid OpenWire frame size " + packetLength);
+                    }
                     //add the length back in - cause OpenWire expects it
                     packetLength += 4;
-                    int len = readStart + packetLength;
-                    if (len <= readBuffer.length()) {
-                        //do the read
-
-                        Buffer buffer = readBuffer.getBuffer(readStart, (readStart + packetLength));
-                        dataIn.restart(buffer.getBytes());
-                        Object object = wireFormat.unmarshal(dataIn);
+                    if (packetLength <= readBuffer.readableBytes()) {
+                        ByteBuf frame = readBuffer.readSlice(packetLength);
+                        Object object = wireFormat.unmarshal(new ByteBufInputStream(frame));
                         transport.doConsume(object);
-                        readStart = len;
                     } else {
                         break;
                     }
-                    /*
-                     * GC: messages can come in distinct clumps - we might be able to throw away the buffer
-                     * - else we will try to compact it
-                     */
-                    if (readStart >= readBuffer.length()) {
-                        readBuffer = null;
-                        readStart = 0;
-
-                    } else if (readStart > OpenWireTransport.COMPACT_SIZE) {
-                        readBuffer = readBuffer.getBuffer(readStart, readBuffer.length());
-                        readStart = 0;
-                    }
                 }
+                /*
+                 * GC: drop the buffers we have completely read - anything left over is a partial frame
+                 */
+                readBuffer.discardReadComponents();
 
             } catch (Throwable e) {
                 transport.handleException(e);
@@ -133,7 +182,21 @@ class OpenWireWriteStream extends ServiceSupport implements WriteStream<OpenWire
 
     @Override
     protected void doStop(ServiceStopper serviceStopper) throws Exception {
-
+        //the composite buffer still holds the components of any partial frame - release them on the context
+        //that processes the buffers, after any it's part way through, as nothing more is processed once stopped
+        VoidHandler release = new VoidHandler() {
+            @Override
+            protected void handle() {
+                readBuffer.release();
+            }
+        };
+        Context context = processContext;
+        if (context != null) {
+            context.runOnContext(release);
+        } else {
+            //nothing has been processed - or ever will be
+            release.handle(null);
+        }
     }
 
     @Override
@@ -15,6 +15,7 @@
 package io.fabric8.mq.controller.protocol.openwire;
 
 import io.fabric8.mq.controller.protocol.ProtocolDetector;
+import io.fabric8.mq.controller.protocol.ProtocolSignature;
 import io.fabric8.mq.controller.util.ConnectionParameters;
 import io.fabric8.mq.controller.util.SocketWrapper;
 import org.apache.activemq.command.Command;
@@ -26,14 +27,18 @@ import org.vertx.java.core.buffer.Buffer;
 
 import java.io.IOException;
 
-import static io.fabric8.mq.controller.util.BufferSupport.indexOf;
-
 /**
  */
 public class OpenwireProtocol implements ProtocolDetector {
     private static final transient Logger LOG = LoggerFactory.getLogger(OpenwireProtocol.class);
     private static final String[] SCHEMES = new String[]{"tcp", "nio"};
     public static Buffer MAGIC = new Buffer(new byte[]{'A', 'c', 't', 'i', 'v', 'e', 'M', 'Q'});
+    /**
+     * A size prefix, the WireFormatInfo data structure type, then the magic
+     */
+    private static final ProtocolSignature[] SIGNATURES = new ProtocolSignature[]{
+        new ProtocolSignature().any(4).literal(WireFormatInfo.DATA_STRUCTURE_TYPE).ascii("ActiveMQ")
+    };
     public int maxFrameSize = 1024 * 1024 * 100;
 
     @Override
@@ -50,9 +55,14 @@ public class OpenwireProtocol implements ProtocolDetector {
         return 5 + MAGIC.length();
     }
 
+    @Override
+    public ProtocolSignature[] getSignatures() {
+        return SIGNATURES;
+    }
+
     @Override
     public boolean matches(Buffer buffer) {
-        return buffer.length() >= 4 + MAGIC.length() && indexOf(buffer, 5, MAGIC) >= 0;
+        return ProtocolSignature.matches(SIGNATURES, buffer);
     }
 
     @Override
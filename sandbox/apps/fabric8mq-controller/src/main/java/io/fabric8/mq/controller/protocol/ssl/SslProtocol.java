@@ -15,6 +15,7 @@
 package io.fabric8.mq.controller.protocol.ssl;
 
 import io.fabric8.mq.controller.protocol.ProtocolDetector;
+import io.fabric8.mq.controller.protocol.ProtocolSignature;
 import io.fabric8.mq.controller.util.ConnectionParameters;
 import io.fabric8.mq.controller.util.SocketWrapper;
 import org.slf4j.Logger;
@@ -27,6 +28,15 @@ import org.vertx.java.core.buffer.Buffer;
 public class SslProtocol implements ProtocolDetector {
     private static final transient Logger LOG = LoggerFactory.getLogger(SslProtocol.class);
     private static final String[] SCHEMES = new String[]{"ssl"};
+    /**
+     * TLS/SSLv3 handshake records and SSLv2 style Client Hellos - the same checks as {@link #matches(Buffer)}
+     */
+    private static final ProtocolSignature[] SIGNATURES = new ProtocolSignature[]{
+        new ProtocolSignature().literal(0x16, 2).any(3).literal(1),
+        new ProtocolSignature().literal(0x16, 3).range(0, 3).any(2).literal(1),
+        new ProtocolSignature().range(0x80, 0xBF).any(1).literal(1, 2),
+        new ProtocolSignature().range(0x80, 0xBF).any(1).literal(1, 3).range(0, 3)
+    };
 
     @Override
     public String getProtocolName() {
@@ -42,6 +52,11 @@ public class SslProtocol implements ProtocolDetector {
         return 6;
     }
 
+    @Override
+    public ProtocolSignature[] getSignatures() {
+        return SIGNATURES;
+    }
+
     @Override
     public boolean matches(Buffer buffer) {
         if (buffer.length() >= 6) {
@@ -15,6 +15,7 @@
 package io.fabric8.mq.controller.protocol.stomp;
 
 import io.fabric8.mq.controller.protocol.ProtocolDetector;
+import io.fabric8.mq.controller.protocol.ProtocolSignature;
 import io.fabric8.mq.controller.util.ConnectionParameters;
 import io.fabric8.mq.controller.util.SocketWrapper;
 import org.apache.activemq.transport.stomp.Stomp;
@@ -30,6 +31,10 @@ public class StompProtocol implements ProtocolDetector {
     public static final int maxCommandLength = 20;
     private static final transient Logger LOG = LoggerFactory.getLogger(StompProtocol.class);
     private static final String[] SCHEMES = new String[]{"stomp", "stomp+nio"};
+    private static final ProtocolSignature[] SIGNATURES = new ProtocolSignature[]{
+        new ProtocolSignature().ascii(Stomp.Commands.CONNECT),
+        new ProtocolSignature().ascii(Stomp.Commands.STOMP)
+    };
     public int maxHeaderLength = 1024 * 10;
     public int maxHeaders = 1000;
     public int maxDataLength = 1024 * 1024 * 100;
@@ -48,11 +53,14 @@ public class StompProtocol implements ProtocolDetector {
         return 10;
     }
 
+    @Override
+    public ProtocolSignature[] getSignatures() {
+        return SIGNATURES;
+    }
+
     @Override
     public boolean matches(Buffer buffer) {
-        String header = buffer.toString();
-        return header.startsWith(Stomp.Commands.CONNECT) ||
-                   header.startsWith(Stomp.Commands.STOMP);
+        return ProtocolSignature.matches(SIGNATURES, buffer);
     }
 
     @Override
@@ -12,196 +12,59 @@
  *  * permissions and limitations under the License.
  *
  */
+
 package io.fabric8.mq.controller.protocol.stomp;
 
-import org.apache.activemq.AsyncCallback;
-import org.apache.activemq.command.Command;
-import org.apache.activemq.util.DataByteArrayOutputStream;
-import org.apache.activemq.util.ServiceStopper;
-import org.apache.activemq.util.ServiceSupport;
+import io.fabric8.mq.controller.protocol.ProtocolReadStream;
+import org.apache.activemq.transport.stomp.StompFrame;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.buffer.Buffer;
-import org.vertx.java.core.streams.ReadStream;
+import org.vertx.java.core.Vertx;
 
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
-
-class StompReadStream extends ServiceSupport implements ReadStream<StompReadStream> {
 
+/**
+ * Marshals outbound STOMP frames to the client - write batching is off unless enabled
+ * on the transport.
+ */
+class StompReadStream extends ProtocolReadStream<StompReadStream> {
     private final StompTransport transport;
     private final StompWireFormat wireFormat;
-    private final DataByteArrayOutputStream dataOut;
-    private final ReentrantLock lock;
-    private Handler<Buffer> dataHandler;
-    private boolean paused;
-    private BlockingQueue<Send> queue;
 
-    StompReadStream(StompTransport transport, final StompWireFormat wireFormat) {
+    StompReadStream(Vertx vertx, StompTransport transport, final StompWireFormat wireFormat) {
+        super(vertx, 0);
         this.transport = transport;
         this.wireFormat = wireFormat;
-        dataOut = new DataByteArrayOutputStream();
-        lock = new ReentrantLock();
     }
 
     @Override
-    public StompReadStream endHandler(Handler<Void> handler) {
-        return this;
+    protected void marshal(Object frame, DataOutput dataOut) throws IOException {
+        wireFormat.marshal(frame, dataOut);
     }
 
     @Override
-    public StompReadStream dataHandler(Handler<Buffer> handler) {
-        dataHandler = handler;
-        return this;
+    protected int estimateSize(Object frame) {
+        byte[] content = ((StompFrame) frame).getContent();
+        return content != null ? content.length + FRAME_OVERHEAD : FRAME_OVERHEAD;
     }
 
     @Override
-    public StompReadStream pause() {
-        ReentrantLock lock = this.lock;
-        try {
-            lock.lockInterruptibly();
-            paused = true;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            lock.unlock();
-        }
-        return this;
+    protected void runOnContext(Handler<Void> handler) {
+        transport.runOnContext(handler);
     }
 
     @Override
-    public StompReadStream resume() {
-        final ReentrantLock lock = io.fabric8.mq.controller.protocol.stomp.StompReadStream.this.lock;
-        try {
-            lock.lockInterruptibly();
-            if (paused) {
-                final BlockingQueue<Send> queue = this.queue;
-                if (queue != null && !queue.isEmpty()) {
-                    Send send = queue.poll(50, TimeUnit.MILLISECONDS);
-                    do {
-                        Buffer buffer = io.fabric8.mq.controller.protocol.stomp.StompReadStream.this.createBuffer(send.getCommand());
-                        if (buffer != null) {
-                            final Handler<Buffer> dh = dataHandler;
-                            if (dh != null) {
-                                dh.handle(buffer);
-                                send.onSuccess();
-                            } else {
-                                throw new IllegalStateException("No Data Handler");
-                            }
-                        }
-
-                    } while (send != null && !queue.isEmpty());
-
-                }
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            paused = false;
-            lock.unlock();
-        }
-        return this;
+    protected boolean isOnContext() {
+        return transport.isOnContext();
     }
 
     @Override
-    public StompReadStream exceptionHandler(Handler<Throwable> handler) {
-        return this;
-    }
-
-    protected void sendToVertx(final Object o) throws IOException {
-        sendToVertx(o, null);
-    }
-
-    protected void sendToVertx(final Object o, final AsyncCallback asyncCallback) throws IOException {
-        final ReentrantLock lock = io.fabric8.mq.controller.protocol.stomp.StompReadStream.this.lock;
-        try {
-            lock.lockInterruptibly();
-            if (paused) {
-                if (queue == null) {
-                    queue = new LinkedBlockingDeque<>();
-                }
-                queue.add(new Send((Command) o, asyncCallback));
-            } else {
-                Buffer buffer = io.fabric8.mq.controller.protocol.stomp.StompReadStream.this.createBuffer(o);
-                if (buffer != null) {
-                    final Handler<Buffer> dh = dataHandler;
-                    if (dh != null) {
-                        dh.handle(buffer);
-                        if (asyncCallback != null) {
-                            asyncCallback.onSuccess();
-                        }
-                    } else {
-                        throw new IllegalStateException("No Data Handler");
-                    }
-                }
-
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    private Buffer createBuffer(Object command) {
-        Buffer buffer = null;
-
-        if (command != null) {
-            try {
-                wireFormat.marshal(command, dataOut);
-                dataOut.flush();
-                int size = dataOut.size();
-                byte[] data = new byte[size];
-                System.arraycopy(dataOut.getData(), 0, data, 0, size);
-                if (size > StompTransport.COMPACT_SIZE) {
-                    dataOut.restart();
-                }
-                dataOut.reset();
-                buffer = new Buffer(data);
-            } catch (Throwable t) {
-                transport.handleException(t);
-            }
-        }
-        return buffer;
-    }
-
-    @Override
-    protected void doStop(ServiceStopper serviceStopper) throws Exception {
-        paused = false;
+    protected boolean isTransportStopped() {
+        return transport.isStopped();
     }
 
     @Override
-    protected void doStart() throws Exception {
-    }
-
-    private class Send {
-        final private Command command;
-        final private AsyncCallback callback;
-
-        Send(Command command, AsyncCallback callback) {
-            this.command = command;
-            this.callback = callback;
-        }
-
-        Send(Command command) {
-            this.command = command;
-            this.callback = null;
-        }
-
-        Command getCommand() {
-            return command;
-        }
-
-        void onSuccess() {
-            if (callback != null) {
-                callback.onSuccess();
-            }
-        }
-
-        public String toString() {
-            return "Send[" + command + "], callback = " + callback;
-        }
+    protected void handleException(Throwable t) {
+        transport.handleException(t);
     }
 }
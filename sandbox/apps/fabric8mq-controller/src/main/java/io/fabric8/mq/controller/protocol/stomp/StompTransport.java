@@ -38,6 +38,7 @@ import org.apache.activemq.transport.stomp.StompFrame;
 import org.apache.activemq.util.ServiceStopper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Context;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
@@ -54,6 +55,7 @@ public class StompTransport extends TransportSupport implements ProtocolTranspor
     private static final transient Logger LOG = LoggerFactory.getLogger(StompTransport.class);
 
     private final Vertx vertx;
+    private volatile Context context;
     private final AtomicInteger receiveCounter = new AtomicInteger();
     private final String name;
     private final StompWriteStream writeStream;
@@ -69,7 +71,7 @@ public class StompTransport extends TransportSupport implements ProtocolTranspor
         this.vertx = vertx;
         this.inactivityMonitor = new InactivityMonitor(asyncExecutors, this, true);
         writeStream = new StompWriteStream(this, wireFormat);
-        readStream = new StompReadStream(this, wireFormat);
+        readStream = new StompReadStream(vertx, this, wireFormat);
         protocolConverter = new StompProtocolConverter(this, wireFormat);
     }
 
@@ -141,11 +143,41 @@ public class StompTransport extends TransportSupport implements ProtocolTranspor
     }
 
     protected void runOnContext(Handler<Void> handler) {
-        vertx.runOnContext(handler);
+        Context pinned = context;
+        if (pinned != null) {
+            pinned.runOnContext(handler);
+        } else {
+            vertx.runOnContext(handler);
+        }
+    }
+
+    /**
+     * True on any event loop thread - which must never block waiting for the client to drain
+     */
+    protected boolean isOnContext() {
+        return vertx.currentContext() != null;
+    }
+
+    @Override
+    public StompTransport setContext(Context context) {
+        this.context = context;
+        return this;
+    }
+
+    @Override
+    public StompTransport setInputSuspended(boolean suspended) {
+        writeStream.setSuspended(suspended);
+        return this;
+    }
+
+    @Override
+    public boolean isOutboundQueueFull() {
+        return readStream.isQueueFull();
     }
 
     public StompTransport setWriteQueueMaxSize(int i) {
         writeStream.setWriteQueueMaxSize(i);
+        readStream.setMaxQueueSize(i);
         return this;
     }
 
@@ -154,6 +186,12 @@ public class StompTransport extends TransportSupport implements ProtocolTranspor
         return writeStream.writeQueueFull();
     }
 
+    @Override
+    public StompTransport setWriteBatching(int maxBatchSize, long maxBatchDelayMicros) {
+        readStream.setWriteBatching(maxBatchSize, maxBatchDelayMicros);
+        return this;
+    }
+
     @Override
     public StompTransport drainHandler(Handler<Void> handler) {
         writeStream.drainHandler(handler);
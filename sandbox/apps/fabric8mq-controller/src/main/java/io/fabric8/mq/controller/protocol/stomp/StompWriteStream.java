@@ -25,6 +25,7 @@ import org.vertx.java.core.streams.WriteStream;
 class StompWriteStream extends ServiceSupport implements WriteStream<StompWriteStream> {
     private final StompTransport transport;
     private Handler<Void> drainHandler;
+    private volatile boolean suspended;
     private StompVertxCodec codec;
 
     StompWriteStream(StompTransport transport, StompWireFormat wireFormat) {
@@ -50,7 +51,18 @@ class StompWriteStream extends ServiceSupport implements WriteStream<StompWriteS
 
     @Override
     public boolean writeQueueFull() {
-        return false;
+        return suspended;
+    }
+
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        if (!suspended) {
+            transport.runOnContext(new VoidHandler() {
+                public void handle() {
+                    callDrainHandler();
+                }
+            });
+        }
     }
 
     @Override
@@ -0,0 +1,154 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.sharding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable consistent hashing ring. Every node is placed on the ring at a number of points
+ * (virtual nodes) proportional to its weight, and a key belongs to the node owning the first point at
+ * or after the hash of the key. Adding or removing a node only moves the keys between it and its
+ * neighbours - roughly 1/n of them.
+ * <p>
+ * Lookups are a binary search over a sorted array, so a ring can be shared freely between threads -
+ * a change of membership builds a new ring rather than modifying this one.
+ */
+public class ConsistentHashRing<T> {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+    private static final ConsistentHashRing EMPTY = new ConsistentHashRing<>(new long[0], new Object[0], Collections.emptySet());
+    private final long[] points;
+    private final Object[] owners;
+    private final Set<T> nodes;
+
+    private ConsistentHashRing(long[] points, Object[] owners, Set<T> nodes) {
+        this.points = points;
+        this.owners = owners;
+        this.nodes = nodes;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> ConsistentHashRing<T> empty() {
+        return EMPTY;
+    }
+
+    public static <T> Builder<T> builder(int virtualNodes) {
+        return new Builder<>(virtualNodes);
+    }
+
+    /**
+     * @return the node the key belongs to, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -(index + 1);
+            if (index == points.length) {
+                //wrap around
+                index = 0;
+            }
+        }
+        return (T) owners[index];
+    }
+
+    public Set<T> getNodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return points.length == 0;
+    }
+
+    /**
+     * 64 bit FNV-1a of the characters, finished with the MurmurHash3 finalizer so that similar
+     * keys (e.g. queue names differing only by a suffix) are spread evenly around the ring
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static class Builder<T> {
+        private final int virtualNodes;
+        private final List<Point> points = new ArrayList<>();
+        private final Set<T> nodes = new LinkedHashSet<>();
+
+        Builder(int virtualNodes) {
+            this.virtualNodes = Math.max(1, virtualNodes);
+        }
+
+        /**
+         * @param id     a name for the node that is the same every time the ring is built - it decides where the node is placed
+         * @param weight the relative capacity of the node
+         */
+        public Builder<T> add(String id, T node, int weight) {
+            if (nodes.add(node)) {
+                int count = virtualNodes * Math.max(1, weight);
+                for (int i = 0; i < count; i++) {
+                    points.add(new Point(hash(id + "#" + i), node));
+                }
+            }
+            return this;
+        }
+
+        public ConsistentHashRing<T> build() {
+            if (points.isEmpty()) {
+                return empty();
+            }
+            Collections.sort(points, new Comparator<Point>() {
+                @Override
+                public int compare(Point p1, Point p2) {
+                    return Long.compare(p1.hash, p2.hash);
+                }
+            });
+            long[] hashes = new long[points.size()];
+            Object[] owners = new Object[points.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = points.get(i).hash;
+                owners[i] = points.get(i).node;
+            }
+            return new ConsistentHashRing<>(hashes, owners, Collections.unmodifiableSet(new LinkedHashSet<>(nodes)));
+        }
+    }
+
+    private static class Point {
+        private final long hash;
+        private final Object node;
+
+        Point(long hash, Object node) {
+            this.hash = hash;
+            this.node = node;
+        }
+    }
+}
@@ -20,8 +20,7 @@ import io.fabric8.mq.controller.TransportChangedListener;
 import io.fabric8.mq.controller.coordination.brokers.BrokerTransport;
 import io.fabric8.mq.controller.model.BrokerControl;
 import io.fabric8.mq.controller.model.BrokerModelChangedListener;
-import io.fabric8.mq.controller.util.LRUCache;
-import io.fabric8.mq.controller.util.MultiCallback;
+import io.fabric8.mq.controller.util.ResponseCorrelationTable;
 import org.apache.activemq.command.ActiveMQDestination;
 import org.apache.activemq.command.Command;
 import org.apache.activemq.command.ExceptionResponse;
@@ -35,24 +34,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 public class ShardedMessageDistribution extends ServiceSupport implements MessageDistribution, BrokerModelChangedListener {
     private static Logger LOG = LoggerFactory.getLogger(ShardedMessageDistribution.class);
     private final BrokerControl brokerControl;
     private final List<TransportChangedListener> transportChangedListeners = new CopyOnWriteArrayList<>();
-    private final Map<MultiCallback, MultiCallback> requestMap = new LRUCache<>(50000);
+    private final ResponseCorrelationTable requests;
     private final InternalTransportListener listener = new InternalTransportListener();
-    private final CountDownLatch countDownLatch = new CountDownLatch(1);
+    private volatile boolean brokerAvailable;
 
     public ShardedMessageDistribution(BrokerControl brokerControl) {
         this.brokerControl = brokerControl;
+        this.requests = new ResponseCorrelationTable(ShardedMessageDistribution.class.getSimpleName());
+    }
+
+    public long getRequestTimeout() {
+        return requests.getRequestTimeout();
+    }
+
+    public void setRequestTimeout(long requestTimeout) {
+        requests.setRequestTimeout(requestTimeout);
+    }
+
+    public int getOutstandingRequests() {
+        return requests.getOutstanding();
     }
 
     @Override
@@ -63,15 +71,16 @@ public class ShardedMessageDistribution extends ServiceSupport implements Messag
     @Override
     public void sendAll(Command command, boolean force) throws IOException {
         if (!force) {
-            waitForBroker();
+            checkBroker();
         }
         if (isStarted()) {
             Collection<BrokerTransport> transports = brokerControl.getTransports(this);
-            for (BrokerTransport brokerTransport : transports) {
-                if (brokerTransport != null) {
+            try {
+                for (BrokerTransport brokerTransport : transports) {
                     brokerTransport.getTransport().oneway(command);
-                    brokerTransport.release();
                 }
+            } finally {
+                release(transports);
             }
         } else {
             throw new IOException("ShardedMessageBroker not started");
@@ -80,12 +89,10 @@ public class ShardedMessageDistribution extends ServiceSupport implements Messag
 
     @Override
     public void send(ActiveMQDestination destination, Command command) throws IOException {
-        waitForBroker();
+        checkBroker();
         if (isStarted()) {
-            BrokerTransport brokerTransport = brokerControl.getTransport(this, destination);
-            if (brokerTransport != null) {
+            try (BrokerTransport brokerTransport = brokerControl.getTransport(this, destination)) {
                 brokerTransport.getTransport().oneway(command);
-                brokerTransport.release();
             }
         } else {
             throw new IOException("ShardedMessageBroker not started");
@@ -94,18 +101,22 @@ public class ShardedMessageDistribution extends ServiceSupport implements Messag
 
     @Override
     public void asyncSendAll(final Command command, final ResponseCallback callback) throws IOException {
-        waitForBroker();
+        checkBroker();
         if (isStarted()) {
-            MultiCallback multiCallback = new MultiCallback(requestMap, command, callback);
-            synchronized (requestMap) {
-                requestMap.put(multiCallback, multiCallback);
-            }
             Collection<BrokerTransport> brokerTransports = brokerControl.getTransports(this);
-            for (BrokerTransport brokerTransport : brokerTransports) {
-                if (brokerTransport != null) {
-                    brokerTransport.getTransport().asyncRequest(command, multiCallback);
-                    brokerTransport.release();
+            try {
+                //the first broker to respond completes the request
+                ResponseCallback correlated = requests.register(callback);
+                if (brokerTransports.isEmpty()) {
+                    fail(correlated, new IOException("No broker available"));
                 }
+                for (BrokerTransport brokerTransport : brokerTransports) {
+                    if (!asyncRequest(brokerTransport, command, correlated)) {
+                        break;
+                    }
+                }
+            } finally {
+                release(brokerTransports);
             }
         } else {
             throw new IOException("ShardedMessageBroker not started");
@@ -114,12 +125,10 @@ public class ShardedMessageDistribution extends ServiceSupport implements Messag
 
     @Override
     public void asyncSend(ActiveMQDestination destination, Command command, ResponseCallback callback) throws IOException {
-        waitForBroker();
+        checkBroker();
         if (isStarted()) {
-            BrokerTransport brokerTransport = brokerControl.getTransport(this, destination);
-            if (brokerTransport != null) {
-                brokerTransport.getTransport().asyncRequest(command, callback);
-                brokerTransport.release();
+            try (BrokerTransport brokerTransport = brokerControl.getTransport(this, destination)) {
+                asyncRequest(brokerTransport, command, requests.register(callback));
             }
         } else {
             throw new IOException("ShardedMessageBroker not started");
@@ -168,45 +177,55 @@ public class ShardedMessageDistribution extends ServiceSupport implements Messag
 
     @Override
     public void brokerNumberChanged(int numberOfBrokers) {
-        if (numberOfBrokers > 0) {
-            countDownLatch.countDown();
-        }
+        brokerAvailable = numberOfBrokers > 0;
     }
 
     @Override
     protected void doStart() throws Exception {
         brokerControl.addMessageDistribution(this);
         brokerControl.addBrokerModelChangedListener(this);
-        if (!brokerControl.getBrokerModels().isEmpty()) {
-            countDownLatch.countDown();
-        }
+        brokerAvailable = !brokerControl.getBrokerModels().isEmpty();
     }
 
     protected void doStop(ServiceStopper serviceStopper) throws IOException {
         brokerControl.removeBrokerModelChangedListener(this);
         brokerControl.removeMessageDistribution(this);
-        IOException stopped = new IOException("stopped");
-        ArrayList<MultiCallback> requests;
-        synchronized (requestMap) {
-            requests = new ArrayList<>(requestMap.keySet());
-            requestMap.clear();
+        requests.failAll(new IOException("stopped"));
+    }
 
+    /**
+     * Never block the caller waiting for a broker - the Multiplexer holds commands until it has been
+     * told a broker transport exists, so this only fails if the broker went away in the meantime
+     */
+    private void checkBroker() throws IOException {
+        if (!brokerAvailable && brokerControl.getBrokerModels().isEmpty()) {
+            throw new IOException("No broker available");
         }
-        for (MultiCallback multiCallback : requests) {
-            FutureResponse futureResponse = new FutureResponse(multiCallback.getCallback());
-            futureResponse.set(new ExceptionResponse(stopped));
-            multiCallback.onCompletion(futureResponse);
+    }
+
+    /**
+     * Once a request is registered its callback is the only way the caller hears about it - so a failed
+     * send completes the request rather than throwing, and it can't be left outstanding
+     *
+     * @return false if the send failed
+     */
+    private static boolean asyncRequest(BrokerTransport brokerTransport, Command command, ResponseCallback correlated) {
+        try {
+            brokerTransport.getTransport().asyncRequest(command, correlated);
+            return true;
+        } catch (Throwable e) {
+            fail(correlated, e);
+            return false;
         }
+    }
 
+    private static void fail(ResponseCallback correlated, Throwable cause) {
+        new FutureResponse(correlated).set(new ExceptionResponse(cause));
     }
 
-    private void waitForBroker() {
-        try {
-            if (!countDownLatch.await(1, TimeUnit.MINUTES)) {
-                throw new IllegalStateException("Broker didn't start");
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    private static void release(Collection<BrokerTransport> brokerTransports) {
+        for (BrokerTransport brokerTransport : brokerTransports) {
+            brokerTransport.release();
         }
     }
 
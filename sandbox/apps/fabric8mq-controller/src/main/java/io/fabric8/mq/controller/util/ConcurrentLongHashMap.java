@@ -0,0 +1,313 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A map keyed by primitive longs - open addressing with linear probing, so there are no
+ * entry objects and no boxed keys. Intended for the ids the controller generates itself
+ * from an AtomicLong, which are looked up for every message.
+ * <p>
+ * Reads are lock free in the common case (an optimistic read that is validated afterwards);
+ * writes take an exclusive lock. Null values are not supported.
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentLongHashMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table;
+    private int size;
+
+    public ConcurrentLongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ConcurrentLongHashMap(int expectedSize) {
+        table = new Table(tableSizeFor((int) (Math.max(expectedSize, 2) / LOAD_FACTOR)));
+    }
+
+    public V get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        V result = table.get(key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                result = table.get(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value, or null
+     */
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+        long stamp = lock.writeLock();
+        try {
+            V previous = table.put(key, value);
+            if (previous == null && ++size > table.threshold) {
+                resize();
+            }
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public V putIfAbsent(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+        long stamp = lock.writeLock();
+        try {
+            V existing = table.get(key);
+            if (existing == null) {
+                table.put(key, value);
+                if (++size > table.threshold) {
+                    resize();
+                }
+            }
+            return existing;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the removed value, or null
+     */
+    public V remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            V previous = table.remove(key, null);
+            if (previous != null) {
+                size--;
+            }
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the entry only if it is currently mapped to the given value
+     */
+    public boolean remove(long key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            if (table.remove(key, value) != null) {
+                size--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            table = new Table(table.keys.length);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return a snapshot of the values
+     */
+    public List<V> values() {
+        long stamp = lock.readLock();
+        try {
+            List<V> result = new ArrayList<>(size);
+            Object[] values = table.values;
+            for (Object value : values) {
+                if (value != null) {
+                    result.add((V) value);
+                }
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return a snapshot of the keys
+     */
+    public long[] keys() {
+        long stamp = lock.readLock();
+        try {
+            long[] result = new long[size];
+            int index = 0;
+            Table current = table;
+            for (int i = 0; i < current.values.length; i++) {
+                if (current.values[i] != null) {
+                    result[index++] = current.keys[i];
+                }
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void resize() {
+        Table current = table;
+        Table resized = new Table(current.keys.length * 2);
+        for (int i = 0; i < current.values.length; i++) {
+            Object value = current.values[i];
+            if (value != null) {
+                resized.put(current.keys[i], (V) value);
+            }
+        }
+        table = resized;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        return Math.max(size, 2);
+    }
+
+    static int hash(long key) {
+        //the finalizer from MurmurHash3 - sequential ids end up well spread
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * The keys and values are held together, so an optimistic reader never sees
+     * the keys of one generation with the values of another
+     */
+    private final class Table {
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+        private final int threshold;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        V get(long key) {
+            int index = hash(key) & mask;
+            //bounded, in case a concurrent writer leaves the table in an odd state for an optimistic read
+            for (int i = 0; i <= mask; i++) {
+                Object value = values[index];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[index] == key) {
+                    return (V) value;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        V put(long key, V value) {
+            int index = hash(key) & mask;
+            while (true) {
+                Object existing = values[index];
+                if (existing == null) {
+                    keys[index] = key;
+                    values[index] = value;
+                    return null;
+                }
+                if (keys[index] == key) {
+                    values[index] = value;
+                    return (V) existing;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        /**
+         * Remove the key, if it is mapped to expected (or to anything if expected is null) - then
+         * shift back any entries further along the probe sequence, so no tombstones are needed
+         */
+        V remove(long key, Object expected) {
+            int index = hash(key) & mask;
+            while (true) {
+                Object existing = values[index];
+                if (existing == null) {
+                    return null;
+                }
+                if (keys[index] == key) {
+                    if (expected != null && !expected.equals(existing)) {
+                        return null;
+                    }
+                    shiftBack(index);
+                    return (V) existing;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        private void shiftBack(int gap) {
+            int index = gap;
+            while (true) {
+                index = (index + 1) & mask;
+                Object value = values[index];
+                if (value == null) {
+                    break;
+                }
+                int home = hash(keys[index]) & mask;
+                //move the entry into the gap if its home slot is not between the gap and where it is now
+                if (((index - home) & mask) >= ((index - gap) & mask)) {
+                    keys[gap] = keys[index];
+                    values[gap] = value;
+                    gap = index;
+                }
+            }
+            keys[gap] = 0;
+            values[gap] = null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import org.apache.activemq.transport.Transport;
+import org.vertx.java.core.impl.ConcurrentHashSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the client connections of a controller - those still being identified, and those
+ * routed to a protocol transport. Routed connections are indexed by both the client socket and
+ * the transport, so a connection can be found from either side without a scan. Safe to use from
+ * any thread.
+ */
+public class ConnectionRegistry {
+    private final Set<SocketWrapper> connecting = new ConcurrentHashSet<>();
+    private final ConcurrentMap<SocketWrapper, ConnectedSocketInfo> connectedByClient = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Transport, ConnectedSocketInfo> connectedByTransport = new ConcurrentHashMap<>();
+
+    public void addConnecting(SocketWrapper socket) {
+        connecting.add(socket);
+    }
+
+    public boolean isConnecting(SocketWrapper socket) {
+        return connecting.contains(socket);
+    }
+
+    /**
+     * @return true if the socket was still connecting - only one caller will see true
+     */
+    public boolean removeConnecting(SocketWrapper socket) {
+        return connecting.remove(socket);
+    }
+
+    public void addConnected(ConnectedSocketInfo info) {
+        connectedByTransport.put(info.getTo(), info);
+        connectedByClient.put(info.getFrom(), info);
+    }
+
+    /**
+     * @return true if the connection was registered - only one caller will see true
+     */
+    public boolean removeConnected(ConnectedSocketInfo info) {
+        if (info.getTo() != null && connectedByTransport.remove(info.getTo(), info)) {
+            connectedByClient.remove(info.getFrom(), info);
+            return true;
+        }
+        return false;
+    }
+
+    public ConnectedSocketInfo getConnected(Transport transport) {
+        return transport != null ? connectedByTransport.get(transport) : null;
+    }
+
+    public ConnectedSocketInfo getConnected(SocketWrapper socket) {
+        return socket != null ? connectedByClient.get(socket) : null;
+    }
+
+    public Collection<SocketWrapper> getConnecting() {
+        return new ArrayList<>(connecting);
+    }
+
+    public Collection<ConnectedSocketInfo> getConnected() {
+        return new ArrayList<>(connectedByTransport.values());
+    }
+}
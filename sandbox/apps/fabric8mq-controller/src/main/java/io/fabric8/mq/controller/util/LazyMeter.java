@@ -0,0 +1,120 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.EWMA;
+import com.codahale.metrics.Meter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Meter} for the per message paths - marking it is a single striped increment,
+ * with no clock read and no moving averages to update. The decaying rates are brought up to
+ * date when they are read, from the change in the count since the last read, so it's the
+ * (infrequent) reader that pays for them instead of every message.
+ * <p>
+ * It is still a Meter, so it can be registered and reported like any other.
+ */
+public class LazyMeter extends Meter {
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private final LongAdder count = new LongAdder();
+    private final EWMA m1Rate = EWMA.oneMinuteEWMA();
+    private final EWMA m5Rate = EWMA.fiveMinuteEWMA();
+    private final EWMA m15Rate = EWMA.fifteenMinuteEWMA();
+    private final Clock clock;
+    private final long startTime;
+    private long lastTick;
+    private long lastCount;
+
+    public LazyMeter() {
+        this(Clock.defaultClock());
+    }
+
+    public LazyMeter(Clock clock) {
+        this.clock = clock;
+        this.startTime = clock.getTick();
+        this.lastTick = startTime;
+    }
+
+    @Override
+    public void mark() {
+        count.increment();
+    }
+
+    @Override
+    public void mark(long n) {
+        count.add(n);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanRate() {
+        long elapsed = clock.getTick() - startTime;
+        if (elapsed <= 0) {
+            return 0.0;
+        }
+        return (double) getCount() / elapsed * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return m1Rate.getRate(TimeUnit.SECONDS);
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+        tickIfNecessary();
+        return m5Rate.getRate(TimeUnit.SECONDS);
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+        tickIfNecessary();
+        return m15Rate.getRate(TimeUnit.SECONDS);
+    }
+
+    private synchronized void tickIfNecessary() {
+        long now = clock.getTick();
+        long ticks = (now - lastTick) / TICK_INTERVAL;
+        if (ticks > 0) {
+            long current = count.sum();
+            long delta = current - lastCount;
+            lastCount = current;
+            lastTick += ticks * TICK_INTERVAL;
+            //we don't know when in the elapsed intervals the marks happened - so spread them evenly
+            long perTick = delta / ticks;
+            long remainder = delta % ticks;
+            for (long i = 0; i < ticks; i++) {
+                long n = perTick + (i < remainder ? 1 : 0);
+                if (n > 0) {
+                    m1Rate.update(n);
+                    m5Rate.update(n);
+                    m15Rate.update(n);
+                }
+                m1Rate.tick();
+                m5Rate.tick();
+                m15Rate.tick();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.fabric8.mq.controller.model.Model;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.activemq.command.ExceptionResponse;
+import org.apache.activemq.command.Response;
+import org.apache.activemq.transport.FutureResponse;
+import org.apache.activemq.transport.ResponseCallback;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the requests sent to the brokers that are still waiting for a response. Every request
+ * gets its own correlation id, and is completed exactly once - by the first response from a broker,
+ * by timing out, or by {@link #failAll(IOException)} when the owner is stopped. Nothing is ever
+ * evicted to make room, however many requests are outstanding.
+ * <p>
+ * Timeouts are driven by one hashed wheel timer shared by all the tables, so an outstanding request
+ * costs a slot in a wheel bucket rather than a scheduled task.
+ */
+public class ResponseCorrelationTable {
+    private static final Counter OUTSTANDING = Model.METRIC_REGISTRY.counter(MetricRegistry.name(ResponseCorrelationTable.class, "requests", "outstanding"));
+    private static final Meter COMPLETED = Model.METRIC_REGISTRY.meter(MetricRegistry.name(ResponseCorrelationTable.class, "requests", "completed"));
+    private static final Meter TIMED_OUT = Model.METRIC_REGISTRY.meter(MetricRegistry.name(ResponseCorrelationTable.class, "requests", "timedOut"));
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(new DefaultThreadFactory("fabric8mq-request-timeout", true), 100, TimeUnit.MILLISECONDS);
+    private final ConcurrentMap<Integer, Request> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger correlationIdGenerator = new AtomicInteger();
+    private final String name;
+    private volatile long requestTimeout;
+
+    public ResponseCorrelationTable(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the callback to hand to the broker transport(s) - only the first completion is passed on to callback
+     */
+    public ResponseCallback register(ResponseCallback callback) {
+        Request request = new Request(correlationIdGenerator.incrementAndGet(), callback);
+        requests.put(request.correlationId, request);
+        OUTSTANDING.inc();
+        long timeout = requestTimeout;
+        if (timeout > 0) {
+            request.timeout = TIMER.newTimeout(request, timeout, TimeUnit.MILLISECONDS);
+        }
+        return request;
+    }
+
+    /**
+     * Complete every outstanding request with an exception response
+     */
+    public void failAll(IOException cause) {
+        List<Request> list = new ArrayList<>(requests.values());
+        for (Request request : list) {
+            request.complete(new ExceptionResponse(cause));
+        }
+    }
+
+    public int getOutstanding() {
+        return requests.size();
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * @param requestTimeout milliseconds to wait for a broker to respond - zero (the default) waits for ever
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    private class Request implements ResponseCallback, TimerTask {
+        private final int correlationId;
+        private final ResponseCallback callback;
+        private volatile Timeout timeout;
+
+        Request(int correlationId, ResponseCallback callback) {
+            this.correlationId = correlationId;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onCompletion(FutureResponse futureResponse) {
+            if (requests.remove(correlationId, this)) {
+                Timeout t = timeout;
+                if (t != null) {
+                    t.cancel();
+                }
+                OUTSTANDING.dec();
+                COMPLETED.mark();
+                callback.onCompletion(futureResponse);
+            }
+        }
+
+        @Override
+        public void run(Timeout t) throws Exception {
+            if (requests.remove(correlationId, this)) {
+                OUTSTANDING.dec();
+                TIMED_OUT.mark();
+                deliver(new ExceptionResponse(new RequestTimeoutException(name + ": no response from the broker after " + requestTimeout + " ms")));
+            }
+        }
+
+        void complete(Response response) {
+            if (requests.remove(correlationId, this)) {
+                Timeout t = timeout;
+                if (t != null) {
+                    t.cancel();
+                }
+                OUTSTANDING.dec();
+                deliver(response);
+            }
+        }
+
+        private void deliver(Response response) {
+            //completing the future hands it to the callback
+            new FutureResponse(callback).set(response);
+        }
+    }
+}
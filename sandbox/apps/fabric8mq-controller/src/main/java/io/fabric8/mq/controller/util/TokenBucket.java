@@ -0,0 +1,69 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+/**
+ * A simple token bucket - refilled continuously at a fixed rate, up to a maximum burst size
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double tokensPerSecond, double capacity, long now) {
+        this.tokensPerNano = tokensPerSecond / 1000000000d;
+        this.capacity = Math.max(1d, capacity);
+        this.tokens = this.capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * @param now the current time from {@link System#nanoTime()}
+     * @return true if a token was available
+     */
+    public synchronized boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1d) {
+            tokens -= 1d;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(long)} that ended up not being used
+     */
+    public synchronized void refund() {
+        tokens = Math.min(capacity, tokens + 1d);
+    }
+
+    /**
+     * @return true if the bucket has refilled completely - i.e. it hasn't been used recently
+     */
+    public synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + (elapsed * tokensPerNano));
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void testGlobalRejectionDoesNotChargeHost() throws Exception {
+        MQControllerStatus status = new MQControllerStatus();
+        status.setMaxConnectionRate(10);
+        status.setMaxConnectionRatePerHost(1);
+        AdmissionController admissionController = new AdmissionController(status);
+
+        long now = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(admissionController.admit(address("10.0.0." + i), now));
+        }
+        //global bucket is empty - so this host is turned away by it
+        Assert.assertFalse(admissionController.admit(address("10.0.1.1"), now));
+
+        //the global bucket has a token again after 150ms - but the host's own bucket
+        //(1 a second) wouldn't have, had the rejected attempt been charged to it
+        now += TimeUnit.MILLISECONDS.toNanos(150);
+        Assert.assertTrue(admissionController.admit(address("10.0.1.1"), now));
+        Assert.assertEquals(11, admissionController.getPending());
+    }
+
+    @Test
+    public void testHostRejectionDoesNotChargeGlobal() throws Exception {
+        MQControllerStatus status = new MQControllerStatus();
+        status.setMaxConnectionRate(10);
+        status.setMaxConnectionRatePerHost(1);
+        AdmissionController admissionController = new AdmissionController(status);
+
+        long now = System.nanoTime();
+        Assert.assertTrue(admissionController.admit(address("10.0.0.1"), now));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertFalse(admissionController.admit(address("10.0.0.1"), now));
+        }
+        //the retries from 10.0.0.1 haven't used up the global bucket
+        for (int i = 2; i <= 10; i++) {
+            Assert.assertTrue(admissionController.admit(address("10.0.0." + i), now));
+        }
+        Assert.assertFalse(admissionController.admit(address("10.0.0.11"), now));
+        Assert.assertEquals(10, admissionController.getPending());
+    }
+
+    @Test
+    public void testPendingRejectionDoesNotChargeBuckets() throws Exception {
+        MQControllerStatus status = new MQControllerStatus();
+        status.setMaxPendingConnections(1);
+        status.setMaxConnectionRate(10);
+        status.setMaxConnectionRatePerHost(1);
+        AdmissionController admissionController = new AdmissionController(status);
+
+        long now = System.nanoTime();
+        Assert.assertTrue(admissionController.admit(address("10.0.0.1"), now));
+        Assert.assertFalse(admissionController.admit(address("10.0.0.2"), now));
+        admissionController.release();
+        Assert.assertTrue(admissionController.admit(address("10.0.0.2"), now));
+    }
+
+    private static InetSocketAddress address(String host) {
+        return InetSocketAddress.createUnresolved(host, 61616);
+    }
+}
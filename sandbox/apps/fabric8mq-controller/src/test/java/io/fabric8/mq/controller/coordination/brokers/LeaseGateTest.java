@@ -0,0 +1,112 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.coordination.brokers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LeaseGateTest {
+
+    @Test
+    public void testQuiesceWaitsForLeases() throws Exception {
+        LeaseGate gate = new LeaseGate("test");
+        gate.acquire(0);
+        Assert.assertFalse(gate.quiesce(100));
+        Assert.assertFalse(gate.isQuiesced());
+
+        gate.release();
+        Assert.assertTrue(gate.quiesce(100));
+        Assert.assertTrue(gate.isQuiesced());
+        Assert.assertEquals(0, gate.getLeaseCount());
+        gate.resume();
+        Assert.assertFalse(gate.isQuiesced());
+    }
+
+    @Test
+    public void testLeaseBlockedUntilResumed() throws Exception {
+        final LeaseGate gate = new LeaseGate("test");
+        Assert.assertTrue(gate.quiesce(100));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.countDown();
+                    gate.acquire(0);
+                    acquired.countDown();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        thread.start();
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        gate.resume();
+        Assert.assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, gate.getLeaseCount());
+        thread.join();
+    }
+
+    @Test
+    public void testLeaseTimeoutAndClose() throws Exception {
+        final LeaseGate gate = new LeaseGate("test");
+        Assert.assertTrue(gate.quiesce(100));
+        try {
+            gate.acquire(100);
+            Assert.fail("should have timed out");
+        } catch (IOException e) {
+        }
+        Assert.assertEquals(0, gate.getLeaseCount());
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.acquire(0);
+                } catch (IOException e) {
+                    failed.set(true);
+                }
+            }
+        });
+        thread.start();
+        gate.close();
+        thread.join(10000);
+        Assert.assertTrue(failed.get());
+    }
+
+    @Test
+    public void testNoWaitRefusedWhileQuiesced() throws Exception {
+        LeaseGate gate = new LeaseGate("test");
+        Assert.assertTrue(gate.quiesce(100));
+        try {
+            gate.acquire(-1);
+            Assert.fail("should have been refused");
+        } catch (BrokerQuiescedException e) {
+        }
+        Assert.assertEquals(0, gate.getLeaseCount());
+        gate.resume();
+        gate.acquire(-1);
+        Assert.assertEquals(1, gate.getLeaseCount());
+        gate.release();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.model;
+
+import io.fabric8.mq.controller.coordination.brokers.BrokerModel;
+import io.fabric8.mq.controller.coordination.brokers.BrokerView;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.filter.DestinationMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The routes DefaultModel keeps for least-loaded sharding must always agree with a DestinationMap
+ */
+public class DefaultModelRoutingTest {
+    private static final String[] LOOKUPS = {"orders.eu", "orders.us", "orders.uk", "orders.asia", "payments"};
+    private DefaultModel model;
+    private DestinationMap expected;
+    private BrokerModel broker1;
+    private BrokerModel broker2;
+    private BrokerModel broker3;
+
+    @Before
+    public void setUp() throws Exception {
+        model = new DefaultModel();
+        expected = new DestinationMap();
+        broker1 = createBroker("broker1");
+        broker2 = createBroker("broker2");
+        broker3 = createBroker("broker3");
+    }
+
+    @Test
+    public void testExactRoutes() throws Exception {
+        add("orders.eu", broker1);
+        add("orders.us", broker2);
+        assertRoutes();
+        Assert.assertEquals(Collections.singleton(broker1), model.getBrokersForDestination(queue("orders.eu")));
+
+        remove("orders.eu", broker1);
+        assertRoutes();
+        Assert.assertNull(model.getBrokersForDestination(queue("orders.eu")));
+    }
+
+    @Test
+    public void testWildcardAddedAfterExactRoutes() throws Exception {
+        add("orders.eu", broker1);
+        add("orders.us", broker2);
+        long version = model.getRoutingVersion();
+        add("orders.>", broker3);
+        Assert.assertTrue(model.getRoutingVersion() > version);
+        assertRoutes();
+        Assert.assertEquals(brokers(broker1, broker3), model.getBrokersForDestination(queue("orders.eu")));
+    }
+
+    @Test
+    public void testWildcardRemoved() throws Exception {
+        add("orders.eu", broker1);
+        add("orders.>", broker3);
+        add("orders.*", broker2);
+        assertRoutes();
+
+        remove("orders.>", broker3);
+        assertRoutes();
+        remove("orders.*", broker2);
+        assertRoutes();
+        Assert.assertEquals(Collections.singleton(broker1), model.getBrokersForDestination(queue("orders.eu")));
+        Assert.assertNull(model.getBrokersForDestination(queue("orders.asia")));
+    }
+
+    @Test
+    public void testCompositeDestinations() throws Exception {
+        add("orders.eu", broker1);
+        add("orders.eu,orders.uk", broker2);
+        assertRoutes();
+        Assert.assertEquals(brokers(broker1, broker2), model.getBrokersForDestination(queue("orders.eu")));
+
+        remove("orders.eu,orders.uk", broker2);
+        assertRoutes();
+    }
+
+    @Test
+    public void testResolvedOnlyThroughWildcard() throws Exception {
+        add("orders.eu", broker1);
+        add("orders.*", broker2);
+        add("*.asia", broker3);
+        assertRoutes();
+        Assert.assertEquals(brokers(broker2, broker3), model.getBrokersForDestination(queue("orders.asia")));
+        Assert.assertNull(model.getBrokersForDestination(queue("payments")));
+    }
+
+    private void add(String name, BrokerModel brokerModel) {
+        model.addBrokerForDestination(queue(name), brokerModel);
+        expected.put(queue(name), brokerModel);
+    }
+
+    private void remove(String name, BrokerModel brokerModel) {
+        model.removeBrokerFromDestination(queue(name), brokerModel);
+        expected.remove(queue(name), brokerModel);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertRoutes() {
+        for (String name : LOOKUPS) {
+            ActiveMQDestination destination = queue(name);
+            Set<BrokerModel> actual = model.getBrokersForDestination(destination);
+            Assert.assertEquals(name, expected.get(destination), actual != null ? actual : Collections.emptySet());
+        }
+    }
+
+    private static Set<BrokerModel> brokers(BrokerModel... brokerModels) {
+        Set<BrokerModel> set = new HashSet<>();
+        Collections.addAll(set, brokerModels);
+        return set;
+    }
+
+    private static ActiveMQDestination queue(String name) {
+        return ActiveMQDestination.createDestination(name, ActiveMQDestination.QUEUE_TYPE);
+    }
+
+    private static BrokerModel createBroker(String name) {
+        BrokerView brokerView = new BrokerView();
+        brokerView.setBrokerId(name);
+        brokerView.setBrokerName(name);
+        return new BrokerModel(null, brokerView, null);
+    }
+}
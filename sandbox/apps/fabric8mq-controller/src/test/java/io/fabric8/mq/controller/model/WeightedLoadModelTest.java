@@ -0,0 +1,92 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+package io.fabric8.mq.controller.model;
+
+import io.fabric8.mq.controller.coordination.brokers.BrokerDestinationOverview;
+import io.fabric8.mq.controller.coordination.brokers.BrokerModel;
+import io.fabric8.mq.controller.coordination.brokers.BrokerOverview;
+import io.fabric8.mq.controller.coordination.brokers.BrokerView;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeightedLoadModelTest {
+    private WeightedLoadModel loadModel;
+
+    @Before
+    public void setUp() throws Exception {
+        loadModel = new WeightedLoadModel();
+        loadModel.setBrokerLimitsConfig(new DefaultBrokerLimitsConfig());
+    }
+
+    @Test
+    public void testConnectionsCount() throws Exception {
+        loadModel.setSmoothing(1);
+        BrokerModel idle = createBroker("idle", 0, 0);
+        BrokerModel connected = createBroker("connected", 10, 0);
+        Assert.assertEquals(0, loadModel.update(idle));
+        Assert.assertTrue(loadModel.update(connected) > 0);
+    }
+
+    @Test
+    public void testAllLimitsReached() throws Exception {
+        loadModel.setSmoothing(1);
+        BrokerModel brokerModel = createBroker("full", 20, 20);
+        BrokerOverview brokerOverview = brokerModel.getBrokerOverview();
+        brokerOverview.setMemoryPercentUsage(100);
+        brokerOverview.setStorePercentUsage(100);
+        brokerOverview.setAverageEnqueueTime(loadModel.getMaxDispatchLatency());
+        //no throughput on the first poll
+        int expected = 100 - (100 * loadModel.getThroughputWeight()) / 100;
+        Assert.assertEquals(expected, loadModel.update(brokerModel));
+    }
+
+    @Test
+    public void testBurstIsSmoothed() throws Exception {
+        loadModel.setSmoothing(0.5);
+        BrokerModel brokerModel = createBroker("bursty", 0, 0);
+        Assert.assertEquals(0, loadModel.update(brokerModel));
+
+        BrokerOverview burst = brokerModel.getBrokerOverview();
+        burst.setMemoryPercentUsage(100);
+        int smoothed = loadModel.update(brokerModel);
+        Assert.assertEquals(loadModel.getMemoryWeight() / 2, smoothed);
+
+        burst.setMemoryPercentUsage(0);
+        int recovering = loadModel.update(brokerModel);
+        Assert.assertTrue(recovering < smoothed);
+        Assert.assertTrue(recovering > 0);
+    }
+
+    /**
+     * @param destinations the number of queues - each with one message on it
+     */
+    private static BrokerModel createBroker(String name, int connections, int destinations) {
+        BrokerOverview brokerOverview = new BrokerOverview();
+        brokerOverview.setTotalConnections(connections);
+        for (int i = 0; i < destinations; i++) {
+            ActiveMQDestination destination = ActiveMQDestination.createDestination("queue." + i, ActiveMQDestination.QUEUE_TYPE);
+            BrokerDestinationOverview brokerDestinationOverview = new BrokerDestinationOverview(destination);
+            brokerDestinationOverview.setQueueDepth(1);
+            brokerOverview.addDestinationStatistics(brokerDestinationOverview);
+        }
+        BrokerView brokerView = new BrokerView();
+        brokerView.setBrokerId(name);
+        brokerView.setBrokerName(name);
+        brokerView.setBrokerOverview(brokerOverview);
+        return new BrokerModel(null, brokerView, null);
+    }
+}
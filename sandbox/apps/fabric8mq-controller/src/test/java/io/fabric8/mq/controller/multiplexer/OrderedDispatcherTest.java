@@ -0,0 +1,139 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OrderedDispatcherTest {
+
+    @Test
+    public void testOrderPreservedPerKey() throws Exception {
+        final int keys = 16;
+        final int tasksPerKey = 1000;
+        OrderedDispatcher dispatcher = new OrderedDispatcher("test", 4, tasksPerKey);
+        dispatcher.start();
+        try {
+            final List<List<Integer>> results = new ArrayList<>();
+            List<OrderedDispatcher.Lane> lanes = new ArrayList<>();
+            for (int i = 0; i < keys; i++) {
+                results.add(new ArrayList<Integer>());
+                lanes.add(dispatcher.createLane("lane" + i));
+            }
+            final CountDownLatch latch = new CountDownLatch(keys * tasksPerKey);
+            for (int i = 0; i < tasksPerKey; i++) {
+                for (int key = 0; key < keys; key++) {
+                    final List<Integer> result = results.get(key);
+                    final int sequence = i;
+                    dispatcher.dispatch(lanes.get(key), new Runnable() {
+                        @Override
+                        public void run() {
+                            //only ever touched by one worker at a time
+                            result.add(sequence);
+                            latch.countDown();
+                        }
+                    });
+                }
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            for (List<Integer> result : results) {
+                Assert.assertEquals(tasksPerKey, result.size());
+                for (int i = 0; i < tasksPerKey; i++) {
+                    Assert.assertEquals(i, result.get(i).intValue());
+                }
+            }
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void testDispatchRefusedOnceStopped() throws Exception {
+        OrderedDispatcher dispatcher = new OrderedDispatcher("test", 1, 10);
+        dispatcher.start();
+        dispatcher.stop();
+        try {
+            dispatcher.dispatch(dispatcher.createLane("lane"), new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            Assert.fail("Expected the task to be refused");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testBlockedLaneDoesNotHoldUpOthers() throws Exception {
+        //a single worker - so nothing else can make progress if it waits on the blocked lane
+        OrderedDispatcher dispatcher = new OrderedDispatcher("test", 1, 10);
+        dispatcher.start();
+        try {
+            final AtomicBoolean blocked = new AtomicBoolean(true);
+            OrderedDispatcher.Lane slow = dispatcher.createLane("slow", new OrderedDispatcher.Gate() {
+                @Override
+                public boolean isClosed() {
+                    return blocked.get();
+                }
+            });
+            OrderedDispatcher.Lane fast = dispatcher.createLane("fast");
+            final AtomicInteger slowCount = new AtomicInteger();
+            final CountDownLatch fastLatch = new CountDownLatch(100);
+            Runnable slowTask = new Runnable() {
+                @Override
+                public void run() {
+                    slowCount.incrementAndGet();
+                }
+            };
+            Runnable fastTask = new Runnable() {
+                @Override
+                public void run() {
+                    fastLatch.countDown();
+                }
+            };
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(dispatcher.dispatch(slow, slowTask));
+            }
+            //the slow lane is full - but that only affects the slow lane
+            Assert.assertFalse(dispatcher.dispatch(slow, slowTask));
+            for (int i = 0; i < 100; i++) {
+                while (!dispatcher.dispatch(fast, fastTask)) {
+                    Thread.sleep(1);
+                }
+            }
+            Assert.assertTrue(fastLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, slowCount.get());
+            Assert.assertEquals(10, slow.getQueuedCount());
+
+            blocked.set(false);
+            long end = System.currentTimeMillis() + 10000;
+            while (slowCount.get() < 10 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(10, slowCount.get());
+        } finally {
+            dispatcher.stop();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.protocol;
+
+import io.fabric8.mq.controller.protocol.mqtt.MqttProtocol;
+import io.fabric8.mq.controller.protocol.openwire.OpenwireProtocol;
+import io.fabric8.mq.controller.protocol.stomp.StompProtocol;
+import io.fabric8.mq.controller.util.ConnectionParameters;
+import io.fabric8.mq.controller.util.SocketWrapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProtocolMatcherTest {
+    private ProtocolMatcher matcher;
+
+    @Before
+    public void setUp() throws Exception {
+        List<ProtocolDetector> detectors = new ArrayList<>();
+        detectors.add(new MqttProtocol());
+        detectors.add(new OpenwireProtocol());
+        detectors.add(new StompProtocol());
+        matcher = new ProtocolMatcher(detectors);
+    }
+
+    @Test
+    public void testStomp() throws Exception {
+        Assert.assertEquals("stomp", detect(new Buffer("CONNECT\naccept-version:1.2\n\n")));
+        Assert.assertEquals("stomp", detect(new Buffer("STOMP\n\n")));
+        Assert.assertEquals(ProtocolMatcher.NEED_MORE_DATA, matcher.classify(new Buffer("CONN")));
+    }
+
+    @Test
+    public void testOpenWire() throws Exception {
+        Buffer buffer = new Buffer(new byte[]{0, 0, 1, 0x10, 1});
+        buffer.appendString("ActiveMQ");
+        buffer.appendInt(10);
+        Assert.assertEquals("openwire", detect(buffer));
+    }
+
+    @Test
+    public void testMqtt() throws Exception {
+        //remaining length encoded in one byte
+        Buffer buffer = new Buffer(new byte[]{0x10, 0x20, 0x00, 0x04, 'M', 'Q', 'T', 'T', 0x04});
+        Assert.assertEquals("mqtt", detect(buffer));
+
+        //remaining length encoded in two bytes, MQTT 3.1
+        buffer = new Buffer(new byte[]{0x10, (byte) 0x80, 0x01, 0x00, 0x06, 'M', 'Q', 'I', 's', 'd', 'p', 0x03});
+        Assert.assertEquals("mqtt", detect(buffer));
+    }
+
+    @Test
+    public void testRejectsEarly() throws Exception {
+        Assert.assertEquals(ProtocolMatcher.NO_MATCH, matcher.classify(new Buffer("GET / HTTP/1.1\r\n")));
+        Assert.assertEquals(ProtocolMatcher.NO_MATCH, matcher.classify(new Buffer(new byte[]{0x10, 0x20, 0x00, 0x05})));
+    }
+
+    @Test
+    public void testFirstRegisteredWins() throws Exception {
+        List<ProtocolDetector> detectors = new ArrayList<>();
+        detectors.add(new TestDetector("long", "ABCD"));
+        detectors.add(new TestDetector("short", "AB"));
+        ProtocolMatcher matcher = new ProtocolMatcher(detectors);
+        //the later detector has matched, but has to wait for the earlier one to decide
+        Assert.assertEquals(ProtocolMatcher.NEED_MORE_DATA, matcher.classify(new Buffer("AB")));
+        Assert.assertEquals(ProtocolMatcher.NEED_MORE_DATA, matcher.classify(new Buffer("ABC")));
+        Assert.assertEquals(0, matcher.classify(new Buffer("ABCD")));
+        Assert.assertEquals(1, matcher.classify(new Buffer("ABX")));
+
+        detectors.add(0, new TestDetector("first", "AB"));
+        matcher = new ProtocolMatcher(detectors);
+        Assert.assertEquals(0, matcher.classify(new Buffer("AB")));
+        Assert.assertEquals(0, matcher.classify(new Buffer("ABCD")));
+    }
+
+    private String detect(Buffer buffer) {
+        int match = matcher.classify(buffer);
+        Assert.assertTrue("Expected a match but got " + match, match >= 0);
+        return matcher.getDetector(match).getProtocolName();
+    }
+
+    private static class TestDetector implements ProtocolDetector {
+        private final String name;
+        private final ProtocolSignature[] signatures;
+
+        TestDetector(String name, String signature) {
+            this.name = name;
+            this.signatures = new ProtocolSignature[]{new ProtocolSignature().ascii(signature)};
+        }
+
+        @Override
+        public String[] getProtocolSchemes() {
+            return new String[]{name};
+        }
+
+        @Override
+        public String getProtocolName() {
+            return name;
+        }
+
+        @Override
+        public int getMaxIdentificationLength() {
+            return signatures[0].length();
+        }
+
+        @Override
+        public ProtocolSignature[] getSignatures() {
+            return signatures;
+        }
+
+        @Override
+        public boolean matches(Buffer buffer) {
+            return ProtocolSignature.matches(signatures, buffer);
+        }
+
+        @Override
+        public void snoopConnectionParameters(SocketWrapper socket, Buffer received, Handler<ConnectionParameters> handler) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.sharding;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ConsistentHashRingTest {
+    private static final int KEYS = 100000;
+
+    @Test
+    public void testEmpty() throws Exception {
+        ConsistentHashRing<String> ring = ConsistentHashRing.<String>builder(ConsistentHashRing.DEFAULT_VIRTUAL_NODES).build();
+        Assert.assertTrue(ring.isEmpty());
+        Assert.assertNull(ring.get("queue://test"));
+    }
+
+    @Test
+    public void testAddingABrokerMovesOnlyItsShare() throws Exception {
+        ConsistentHashRing.Builder<String> builder = ConsistentHashRing.builder(ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        for (int i = 0; i < 4; i++) {
+            builder.add("broker" + i, "broker" + i, 1);
+        }
+        ConsistentHashRing<String> before = builder.build();
+        builder.add("broker4", "broker4", 1);
+        ConsistentHashRing<String> after = builder.build();
+
+        Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "queue://test." + i;
+            String owner = before.get(key);
+            Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+            String newOwner = after.get(key);
+            if (!owner.equals(newOwner)) {
+                //anything that moves, moves to the new broker
+                Assert.assertEquals("broker4", newOwner);
+                moved++;
+            }
+        }
+        for (int count : counts.values()) {
+            Assert.assertEquals(KEYS / 4, count, KEYS / 20);
+        }
+        Assert.assertEquals(KEYS / 5, moved, KEYS / 20);
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        ConsistentHashRing<String> ring = ConsistentHashRing.<String>builder(ConsistentHashRing.DEFAULT_VIRTUAL_NODES)
+                                                            .add("small", "small", 1)
+                                                            .add("large", "large", 3)
+                                                            .build();
+        int large = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if ("large".equals(ring.get("topic://test." + i))) {
+                large++;
+            }
+        }
+        Assert.assertEquals(KEYS * 3 / 4, large, KEYS / 20);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ConcurrentLongHashMapTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<>();
+        Assert.assertNull(map.put(1, "one"));
+        Assert.assertNull(map.put(-1, "minus one"));
+        Assert.assertNull(map.put(0, "zero"));
+        Assert.assertEquals("one", map.put(1, "uno"));
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("uno", map.get(1));
+        Assert.assertEquals("zero", map.get(0));
+        Assert.assertEquals("minus one", map.get(-1));
+        Assert.assertNull(map.get(2));
+
+        Assert.assertFalse(map.remove(1, "one"));
+        Assert.assertTrue(map.remove(1, "uno"));
+        Assert.assertNull(map.remove(1));
+        Assert.assertEquals("zero", map.remove(0));
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals("minus one", map.putIfAbsent(-1, "other"));
+    }
+
+    @Test
+    public void testAgainstHashMap() throws Exception {
+        //lots of resizes and removes - entries must never get lost behind a removed slot
+        ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(1234);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Assert.assertEquals(expected.size(), map.keys().length);
+        Assert.assertEquals(expected.size(), map.values().size());
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import org.apache.activemq.command.ConnectionId;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.SessionId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up the original ConsumerId of a dispatch through a ConcurrentHashMap keyed by
+ * the multiplexer ConsumerId (as it used to be) with a ConcurrentLongHashMap keyed by its value.
+ * Not run as part of the build - run the main method with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConsumerIdMapBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int consumers;
+    private Map<ConsumerId, ConsumerId> objectMap;
+    private ConcurrentLongHashMap<ConsumerId> longMap;
+    private ConsumerId[] lookups;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        objectMap = new ConcurrentHashMap<>();
+        longMap = new ConcurrentLongHashMap<>();
+        lookups = new ConsumerId[consumers];
+        SessionId multiplexerSession = new SessionId(new ConnectionId("ID:multiplexer-1"), 1);
+        SessionId clientSession = new SessionId(new ConnectionId("ID:client-1"), 1);
+        for (int i = 0; i < consumers; i++) {
+            ConsumerId original = new ConsumerId(clientSession, i);
+            ConsumerId multiplexed = new ConsumerId(multiplexerSession, i + 1);
+            objectMap.put(multiplexed, original);
+            longMap.put(multiplexed.getValue(), original);
+            //a new instance - as unmarshalled from a MessageDispatch
+            lookups[i] = new ConsumerId(new SessionId(new ConnectionId("ID:multiplexer-1"), 1), i + 1);
+        }
+    }
+
+    @Benchmark
+    public ConsumerId concurrentHashMap() {
+        return objectMap.get(nextLookup());
+    }
+
+    @Benchmark
+    public ConsumerId concurrentLongHashMap() {
+        return longMap.get(nextLookup().getValue());
+    }
+
+    private ConsumerId nextLookup() {
+        int index = next++;
+        if (index >= lookups.length) {
+            index = 0;
+            next = 1;
+        }
+        return lookups[index];
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                              .include(ConsumerIdMapBenchmark.class.getSimpleName())
+                              .warmupIterations(5)
+                              .measurementIterations(5)
+                              .forks(1)
+                              .build();
+        new Runner(options).run();
+    }
+}
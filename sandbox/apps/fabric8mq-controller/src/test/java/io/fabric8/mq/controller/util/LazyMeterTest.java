@@ -0,0 +1,58 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import com.codahale.metrics.Clock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LazyMeterTest {
+
+    @Test
+    public void testRatesCalculatedOnRead() throws Exception {
+        ManualClock clock = new ManualClock();
+        LazyMeter meter = new LazyMeter(clock);
+        for (int i = 0; i < 500; i++) {
+            meter.mark();
+        }
+        Assert.assertEquals(500, meter.getCount());
+        Assert.assertEquals(0.0, meter.getOneMinuteRate(), 0.0);
+
+        clock.advance(5, TimeUnit.SECONDS);
+        Assert.assertEquals(100.0, meter.getOneMinuteRate(), 0.001);
+        Assert.assertEquals(100.0, meter.getMeanRate(), 0.001);
+
+        //nothing marked for a minute - so the one minute rate decays by a factor of e
+        clock.advance(60, TimeUnit.SECONDS);
+        Assert.assertEquals(100.0 / Math.E, meter.getOneMinuteRate(), 0.01);
+        Assert.assertEquals(500, meter.getCount());
+    }
+
+    private static class ManualClock extends Clock {
+        private long tick;
+
+        void advance(long duration, TimeUnit unit) {
+            tick += unit.toNanos(duration);
+        }
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import org.apache.activemq.command.ExceptionResponse;
+import org.apache.activemq.command.Response;
+import org.apache.activemq.transport.FutureResponse;
+import org.apache.activemq.transport.ResponseCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ResponseCorrelationTableTest {
+
+    @Test
+    public void testFirstResponseWins() throws Exception {
+        ResponseCorrelationTable table = new ResponseCorrelationTable("test");
+        final List<Response> responses = new CopyOnWriteArrayList<>();
+        ResponseCallback correlated = table.register(new ResponseCallback() {
+            @Override
+            public void onCompletion(FutureResponse futureResponse) {
+                try {
+                    responses.add(futureResponse.getResult());
+                } catch (IOException e) {
+                    Assert.fail(e.getMessage());
+                }
+            }
+        });
+        Assert.assertEquals(1, table.getOutstanding());
+
+        Response first = new Response();
+        new FutureResponse(correlated).set(first);
+        new FutureResponse(correlated).set(new Response());
+        table.failAll(new IOException("stopped"));
+
+        Assert.assertEquals(1, responses.size());
+        Assert.assertSame(first, responses.get(0));
+        Assert.assertEquals(0, table.getOutstanding());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ResponseCorrelationTable table = new ResponseCorrelationTable("test");
+        table.setRequestTimeout(200);
+        final List<Response> responses = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        table.register(new ResponseCallback() {
+            @Override
+            public void onCompletion(FutureResponse futureResponse) {
+                try {
+                    responses.add(futureResponse.getResult());
+                } catch (IOException e) {
+                    Assert.fail(e.getMessage());
+                }
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(responses.get(0).isException());
+        Assert.assertTrue(((ExceptionResponse) responses.get(0)).getException() instanceof RequestTimeoutException);
+        Assert.assertEquals(0, table.getOutstanding());
+    }
+}
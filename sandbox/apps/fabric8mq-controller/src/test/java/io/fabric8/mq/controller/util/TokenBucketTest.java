@@ -0,0 +1,47 @@
+/*
+ *
+ *  * Copyright 2005-2015 Red Hat, Inc.
+ *  * Red Hat licenses this file to you under the Apache License, version
+ *  * 2.0 (the "License"); you may not use this file except in compliance
+ *  * with the License.  You may obtain a copy of the License at
+ *  *    http://www.apache.org/licenses/LICENSE-2.0
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  * implied.  See the License for the specific language governing
+ *  * permissions and limitations under the License.
+ *
+ */
+
+package io.fabric8.mq.controller.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstThenRefill() throws Exception {
+        long now = 0;
+        TokenBucket bucket = new TokenBucket(10, 5, now);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(bucket.tryAcquire(now));
+        }
+        Assert.assertFalse(bucket.tryAcquire(now));
+
+        //10 tokens a second - so one every 100ms
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        Assert.assertTrue(bucket.tryAcquire(now));
+        Assert.assertFalse(bucket.tryAcquire(now));
+        Assert.assertFalse(bucket.isFull(now));
+
+        now += TimeUnit.SECONDS.toNanos(10);
+        Assert.assertTrue(bucket.isFull(now));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(bucket.tryAcquire(now));
+        }
+        Assert.assertFalse(bucket.tryAcquire(now));
+    }
+}